@@ -0,0 +1,123 @@
+package unam.iimas.ia.ml.ppm;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Revisa que el ciclo de codificación no cree objetos por símbolo: mide con
+ * {@code ThreadMXBean.getCurrentThreadAllocatedBytes} lo que el hilo asigna al comprimir y
+ * descomprimir la entrada repetida 3 veces menos lo que asigna con 1 vez. Lo fijo por llamada
+ * (modelo, buffers, coder) se cancela y queda lo que cuesta cada símbolo de más; las pasadas
+ * repetidas casi no crean contextos nuevos, así que en estado estable eso debe ser ~0. Corre
+ * cada modelo con los dos codificadores, en caliente (varias vueltas antes de medir), con el
+ * maxTotal por omisión y con uno chico que obliga a reescalar todo el tiempo: el reescalado
+ * también tiene que ser en sitio.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar unam.iimas.ia.ml.ppm.AllocationCheck [--input white|red|text|...]
+ *      [--order k] [--max-total n] [--limit bytes/símbolo]
+ * </pre>
+ * Sale con 1 si alguna combinación pasa de {@code --limit} (0.01 bytes por símbolo por omisión).
+ */
+public class AllocationCheck {
+
+    static final int WARMUP = 5, MEASURE = 3;
+
+    public static void main(String[] args) throws Exception {
+        String input = "white";
+        int order = 3;
+        double limit = 0.01;
+        int[] maxTotals = { Ppm.DEFAULT_MAX_TOTAL, Ppm.MIN_MAX_TOTAL };
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--input": input = args[++i]; break;
+                case "--order": order = Integer.parseInt(args[++i]); break;
+                case "--max-total": maxTotals = new int[] { Integer.parseInt(args[++i]) }; break;
+                case "--limit": limit = Double.parseDouble(args[++i]); break;
+                default: throw new IllegalArgumentException("Argumento desconocido: " + args[i]);
+            }
+        }
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!mx.isThreadAllocatedMemorySupported()) throw new IllegalStateException("La JVM no mide asignación por hilo");
+        mx.setThreadAllocatedMemoryEnabled(true);
+        byte[] data = BenchInputs.load(input);
+
+        System.out.printf("=== Asignación por símbolo: %s (%d bytes), orden %d ===%n", input, data.length, order);
+        System.out.printf("%-8s %-6s %11s %18s %18s%n", "modelo", "coder", "maxTotal", "compresión B/sím", "descompresión B/sím");
+        boolean failed = false;
+        for (int maxTotal : maxTotals) {
+            for (Ppm.ModelType model : Ppm.ModelType.values()) {
+                for (Ppm.CoderType coder : Ppm.CoderType.values()) {
+                    Ppm.Options opt = new Ppm.Options(order).model(model).coder(coder).maxTotal(maxTotal);
+                    double[] perSymbol = measure(mx, data, opt);
+                    boolean ok = perSymbol[0] <= limit && perSymbol[1] <= limit;
+                    System.out.printf("%-8s %-6s %11d %18.4f %18.4f%s%n", model, coder, maxTotal, perSymbol[0], perSymbol[1], ok ? "" : "  FALLA");
+                    failed |= !ok;
+                }
+            }
+        }
+        if (failed) {
+            System.out.println("FALLA: el ciclo de codificación asigna más de " + limit + " bytes por símbolo");
+            System.exit(1);
+        }
+    }
+
+    /** Bytes por símbolo de más al comprimir y al descomprimir: la menor de {@link #MEASURE} mediciones. */
+    static double[] measure(com.sun.management.ThreadMXBean mx, byte[] data, Ppm.Options opt) throws Exception {
+        byte[] once = compress(data, 1, opt), thrice = compress(data, 3, opt);
+        long extra = 2L * data.length; // símbolos de más en la pasada x3
+        long bestC = Long.MAX_VALUE, bestD = Long.MAX_VALUE;
+        for (int round = 0; round < WARMUP + MEASURE; round++) {
+            long c = allocated(mx, () -> Ppm.compressStream(new Repeat(data, 3), new Discard(), opt))
+                    - allocated(mx, () -> Ppm.compressStream(new Repeat(data, 1), new Discard(), opt));
+            long d = allocated(mx, () -> Ppm.decompressStream(new ByteArrayInputStream(thrice), new Discard(), opt))
+                    - allocated(mx, () -> Ppm.decompressStream(new ByteArrayInputStream(once), new Discard(), opt));
+            if (round >= WARMUP) { bestC = Math.min(bestC, c); bestD = Math.min(bestD, d); }
+        }
+        return new double[] { Math.max(0, bestC) / (double) extra, Math.max(0, bestD) / (double) extra };
+    }
+
+    interface Run { void run() throws Exception; }
+
+    static long allocated(com.sun.management.ThreadMXBean mx, Run r) throws Exception {
+        long before = mx.getCurrentThreadAllocatedBytes();
+        r.run();
+        return mx.getCurrentThreadAllocatedBytes() - before;
+    }
+
+    static byte[] compress(byte[] data, int times, Ppm.Options opt) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Ppm.compressStream(new Repeat(data, times), out, opt);
+        return out.toByteArray();
+    }
+
+    /** {@code data} {@code times} veces seguidas, sin copiarla a un arreglo más grande. */
+    static final class Repeat extends InputStream {
+        private final byte[] data;
+        private final long size;
+        private long pos;
+
+        Repeat(byte[] data, int times) { this.data = data; this.size = (long) data.length * times; }
+
+        @Override public int read() {
+            if (pos == size) return -1;
+            return data[(int) (pos++ % data.length)] & 0xFF;
+        }
+
+        @Override public int read(byte[] b, int off, int len) {
+            if (pos == size) return -1;
+            int at = (int) (pos % data.length), n = (int) Math.min(Math.min(len, data.length - at), size - pos);
+            System.arraycopy(data, at, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+
+    /** Salida que tira todo: que el buffer de salida no cuente como asignación del ciclo. */
+    static final class Discard extends OutputStream {
+        @Override public void write(int b) { }
+        @Override public void write(byte[] b, int off, int len) { }
+    }
+}
@@ -0,0 +1,72 @@
+package unam.iimas.ia.ml.ppm;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Entradas de los benchmarks. {@code red} y {@code white} son los CSV que vienen en el jar de
+ * ppm; las sintéticas son de {@link #SYNTHETIC_SIZE} bytes y salen de una semilla fija para que
+ * todas las corridas midan lo mismo:
+ * <ul>
+ *   <li>{@code random}: bytes uniformes, el peor caso (casi todo escapa a orden -1).</li>
+ *   <li>{@code repetitive}: un mismo renglón de CSV repetido, el mejor caso.</li>
+ *   <li>{@code text}: palabras de un vocabulario chico con frecuencias sesgadas (tipo Zipf).</li>
+ * </ul>
+ */
+final class BenchInputs {
+    static final int SYNTHETIC_SIZE = 1 << 18;
+    static final long SEED = 42;
+
+    private BenchInputs() {}
+
+    static byte[] load(String name) {
+        switch (name) {
+            case "red": return resource("/winequality-red.csv");
+            case "white": return resource("/winequality-white.csv");
+            case "random": return random();
+            case "repetitive": return repetitive();
+            case "text": return text();
+            default: throw new IllegalArgumentException("Entrada desconocida: " + name);
+        }
+    }
+
+    private static byte[] resource(String path) {
+        try (InputStream in = BenchInputs.class.getResourceAsStream(path)) {
+            if (in == null) throw new IllegalStateException("No está en el classpath: " + path);
+            return in.readAllBytes();
+        } catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+
+    private static byte[] random() {
+        byte[] data = new byte[SYNTHETIC_SIZE];
+        new Random(SEED).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] repetitive() {
+        byte[] row = "7.4;0.7;0;1.9;0.076;11;34;0.9978;3.51;0.56;9.4;5\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] data = new byte[SYNTHETIC_SIZE];
+        for (int i = 0; i < data.length; i++) data[i] = row[i % row.length];
+        return data;
+    }
+
+    private static byte[] text() {
+        String[] words = ("the of and to in is that for it as with was on be by this are from at or an which "
+                + "wine acidity sugar alcohol quality sample density sulfur residual fixed volatile citric "
+                + "model context order symbol escape frequency compression arithmetic range prediction").split(" ");
+        Random rnd = new Random(SEED);
+        StringBuilder sb = new StringBuilder(SYNTHETIC_SIZE + 32);
+        int inLine = 0;
+        while (sb.length() < SYNTHETIC_SIZE) {
+            // Índice sesgado hacia el inicio del vocabulario: las palabras cortas dominan
+            double u = rnd.nextDouble();
+            sb.append(words[(int) (words.length * u * u * u)]);
+            if (++inLine == 12) { sb.append(".\n"); inLine = 0; }
+            else sb.append(rnd.nextInt(10) == 0 ? ", " : " ");
+        }
+        sb.setLength(SYNTHETIC_SIZE);
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,41 @@
+package unam.iimas.ia.ml.ppm;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Codec completo: {@link Ppm#compressBytes} y {@link Ppm#decompressBytes} con las opciones por
+ * omisión. El score es en operaciones por segundo sobre la entrada entera; {@link PpmBenchmarks}
+ * lo pasa a MB/s y agrega bits/byte y bytes asignados por byte de entrada.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class CodecBenchmark {
+
+    @Param({"0", "1", "2", "3", "4", "5", "6"})
+    public int order;
+
+    @Param({"red", "white", "random", "repetitive", "text"})
+    public String input;
+
+    private byte[] data, compressed;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        data = BenchInputs.load(input);
+        compressed = Ppm.compressBytes(data, order);
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return Ppm.compressBytes(data, order);
+    }
+
+    @Benchmark
+    public byte[] decompress() {
+        return Ppm.decompressBytes(compressed, order);
+    }
+}
@@ -0,0 +1,96 @@
+package unam.iimas.ia.ml.ppm;
+import org.openjdk.jmh.annotations.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sólo el codificador de entropía: en el setup se graba la traza de intervalos (cumLow, cumHigh,
+ * total) que produce el modelo de orden 3 sobre la entrada, y los benchmarks la reproducen en
+ * {@link Ppm.ArithmeticEncoder}/{@link Ppm.RangeEncoder} y en sus decodificadores sin tocar el
+ * modelo. La salida va a un sumidero que sólo cuenta bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class CoderBenchmark {
+    static final int TRACE_ORDER = 3;
+
+    @Param({"ARITH", "RANGE"})
+    public Ppm.CoderType coder;
+
+    @Param({"white", "random"})
+    public String input;
+
+    private int[] trace; // tripletas cumLow, cumHigh, total
+    private int events;
+    private byte[] encoded;
+    private Ppm.Options opt;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        byte[] data = BenchInputs.load(input);
+        opt = new Ppm.Options(TRACE_ORDER).coder(coder);
+        TraceEncoder rec = new TraceEncoder();
+        Ppm.ContextModel m = Ppm.newModel(opt);
+        Ppm.Context ctx = new Ppm.Context(TRACE_ORDER);
+        for (byte v : data) {
+            int b = v & 0xFF;
+            Ppm.encodeSymbol(rec, m, ctx, b);
+            m.update(ctx, b);
+            ctx.push(b);
+        }
+        Ppm.encodeSymbol(rec, m, ctx, Ppm.EOF);
+        trace = Arrays.copyOf(rec.t, rec.n);
+        events = rec.n / 3;
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        replay(Ppm.newEncoder(opt, bos));
+        encoded = bos.toByteArray();
+    }
+
+    @Benchmark
+    public long encode() throws IOException {
+        CountingSink sink = new CountingSink();
+        replay(Ppm.newEncoder(opt, sink));
+        return sink.count;
+    }
+
+    @Benchmark
+    public long decode() throws IOException {
+        Ppm.SymbolDecoder dec = Ppm.newDecoder(opt, new ByteArrayInputStream(encoded));
+        long sum = 0;
+        for (int i = 0, j = 0; i < events; i++, j += 3) {
+            sum += dec.getTarget(trace[j + 2]);
+            dec.decode(trace[j], trace[j + 1], trace[j + 2]);
+        }
+        return sum;
+    }
+
+    private void replay(Ppm.SymbolEncoder enc) throws IOException {
+        for (int i = 0, j = 0; i < events; i++, j += 3) enc.encode(trace[j], trace[j + 1], trace[j + 2]);
+        enc.finish();
+    }
+
+    static final class TraceEncoder implements Ppm.SymbolEncoder {
+        int[] t = new int[3 << 16];
+        int n;
+        public void encode(int cumLow, int cumHigh, int total) {
+            if (n + 3 > t.length) t = Arrays.copyOf(t, t.length * 2);
+            t[n++] = cumLow; t[n++] = cumHigh; t[n++] = total;
+        }
+        public void finish() {}
+    }
+
+    static final class CountingSink extends OutputStream {
+        long count;
+        @Override public void write(int b) { count++; }
+        @Override public void write(byte[] b, int off, int len) { count += len; }
+    }
+}
@@ -0,0 +1,47 @@
+package unam.iimas.ia.ml.ppm;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Costo de {@link Ppm.Options#metrics}: el mismo compress/decompress que {@link CodecBenchmark}
+ * con y sin contadores. Con {@code metrics=off} el score tiene que quedar donde el de
+ * CodecBenchmark; la diferencia contra {@code on} es lo que cuesta instrumentar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class MetricsBenchmark {
+
+    @Param({"1", "3", "5"})
+    public int order;
+
+    @Param({"white", "text"})
+    public String input;
+
+    @Param({"off", "on"})
+    public String metrics;
+
+    private byte[] data, compressed;
+    private Ppm.Options opt;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        data = BenchInputs.load(input);
+        opt = new Ppm.Options(order);
+        if (metrics.equals("on")) opt.metrics(new PpmMetrics());
+        compressed = Ppm.compressBytes(data, order);
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return Ppm.compressBytes(data, opt);
+    }
+
+    @Benchmark
+    public byte[] decompress() {
+        return Ppm.decompressBytes(compressed, opt);
+    }
+}
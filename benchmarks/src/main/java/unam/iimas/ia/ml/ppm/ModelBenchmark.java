@@ -0,0 +1,58 @@
+package unam.iimas.ia.ml.ppm;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sólo el modelo: el mismo recorrido de órdenes que al comprimir (select, total, contains,
+ * cumFreq, update y push del contexto) con un codificador que únicamente acumula los
+ * intervalos. Una regresión aquí es de {@link Ppm.PPMModel}, {@link Ppm.TrieModel} u
+ * {@link OffHeapModel}, no del coder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class ModelBenchmark {
+
+    @Param({"0", "2", "4", "6"})
+    public int order;
+
+    @Param({"HASH", "TRIE", "OFFHEAP"})
+    public Ppm.ModelType model;
+
+    @Param({"white", "text"})
+    public String input;
+
+    private byte[] data;
+    private Ppm.Options opt;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        data = BenchInputs.load(input);
+        opt = new Ppm.Options(order).model(model);
+    }
+
+    @Benchmark
+    public long model() throws Exception {
+        SumEncoder enc = new SumEncoder();
+        Ppm.ContextModel m = Ppm.newModel(opt);
+        Ppm.Context ctx = new Ppm.Context(order);
+        for (byte v : data) {
+            int b = v & 0xFF;
+            Ppm.encodeSymbol(enc, m, ctx, b);
+            m.update(ctx, b);
+            ctx.push(b);
+        }
+        Ppm.encodeSymbol(enc, m, ctx, Ppm.EOF);
+        return enc.sum;
+    }
+
+    /** Codificador nulo: sólo suma los intervalos para que el JIT no descarte el trabajo del modelo. */
+    static final class SumEncoder implements Ppm.SymbolEncoder {
+        long sum;
+        public void encode(int cumLow, int cumHigh, int total) { sum += cumLow + cumHigh + total; }
+        public void finish() {}
+    }
+}
@@ -0,0 +1,69 @@
+package unam.iimas.ia.ml.ppm;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Corre los benchmarks con el perfilador de GC y los resume por byte de entrada: MB/s,
+ * bits/byte (sólo el codec) y bytes asignados por byte procesado.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar unam.iimas.ia.ml.ppm.PpmBenchmarks [regex] [--quick]
+ * </pre>
+ * Sin regex corre los tres benchmarks; {@code --quick} baja a 1 iteración de calentamiento y 2
+ * de medición, útil para comparar dos commits a ojo. El costo de las métricas se mide aparte:
+ * {@code PpmBenchmarks MetricsBenchmark}.
+ */
+public class PpmBenchmarks {
+
+    public static void main(String[] args) throws Exception {
+        String include = PpmBenchmarks.class.getPackageName() + ".(Codec|Model|Coder)Benchmark";
+        boolean quick = false;
+        for (String a : args) {
+            if (a.equals("--quick")) quick = true; else include = a;
+        }
+
+        ChainedOptionsBuilder ob = new OptionsBuilder().include(include).addProfiler(GCProfiler.class);
+        if (quick) ob.warmupIterations(1).warmupTime(TimeValue.seconds(1))
+                .measurementIterations(2).measurementTime(TimeValue.seconds(1));
+        Collection<RunResult> results = new Runner(ob.build()).run();
+
+        Map<String, Integer> sizes = new HashMap<>();
+        Map<String, Double> bits = new HashMap<>();
+        System.out.println();
+        System.out.println("=== Resumen por byte de entrada ===");
+        System.out.printf("%-28s %-10s %-6s %-6s %9s %9s %11s%n",
+                "benchmark", "entrada", "orden", "otro", "MB/s", "bits/byte", "B asig/byte");
+        for (RunResult r : results) {
+            String name = r.getParams().getBenchmark();
+            name = name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1);
+            String input = r.getParams().getParam("input");
+            String order = r.getParams().getParam("order");
+            String other = firstNonNull(r.getParams().getParam("model"),
+                    firstNonNull(r.getParams().getParam("coder"), r.getParams().getParam("metrics")));
+            int size = sizes.computeIfAbsent(input, k -> BenchInputs.load(k).length);
+
+            double mbs = r.getPrimaryResult().getScore() * size / 1e6;
+            String bpb = "-";
+            if (name.startsWith("CodecBenchmark")) {
+                int o = Integer.parseInt(order);
+                double v = bits.computeIfAbsent(input + "/" + o,
+                        k -> Ppm.compressBytes(BenchInputs.load(input), o).length * 8.0 / size);
+                bpb = String.format("%.3f", v);
+            }
+            Result<?> alloc = r.getSecondaryResults().get("gc.alloc.rate.norm");
+            String apb = (alloc == null) ? "-" : String.format("%.2f", alloc.getScore() / size);
+            System.out.printf("%-28s %-10s %-6s %-6s %9.2f %9s %11s%n",
+                    name, input, (order == null) ? "-" : order, (other == null) ? "-" : other, mbs, bpb, apb);
+        }
+    }
+
+    private static String firstNonNull(String a, String b) { return (a != null) ? a : b; }
+}
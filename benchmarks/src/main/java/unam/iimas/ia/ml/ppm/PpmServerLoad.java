@@ -0,0 +1,261 @@
+package unam.iimas.ia.ml.ppm;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generador de carga para {@link PpmServer}: varios clientes comprimen payloads chicos (pedazos
+ * de white.csv) y se compara contra llamar {@link Ppm#compressBytes} en un ciclo dentro del mismo
+ * proceso. Cada fase corre {@code --warmup} peticiones por cliente sin medir y luego
+ * {@code --requests}; la primera fila ("estática en frío") son las primeras {@link #COLD}
+ * peticiones de cada cliente con la API estática recién arrancada la JVM, lo que ve un proceso de
+ * línea de comandos que vive poco.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar unam.iimas.ia.ml.ppm.PpmServerLoad [--clients n] [--requests n]
+ *      [--warmup n] [--size bytes] [--order k] [--batch n] [--check]
+ * </pre>
+ * Latencia vista por el cliente; en las fases por lotes cada petición cuenta lo que tardó su lote.
+ * En el calentamiento cada salida se compara con la de la API estática; sale con 1 si alguna no
+ * coincide. Antes de medir, {@link #check} hace ida y vuelta contra cada servidor y revisa el tope
+ * de memoria libre del pool; {@code --check} corre sólo eso.
+ */
+public class PpmServerLoad {
+
+    interface Call extends AutoCloseable {
+        List<byte[]> run(List<byte[]> payloads) throws Exception;
+        @Override default void close() throws Exception {}
+    }
+    interface Connect { Call open() throws Exception; }
+
+    static int clients = 8, requests = 20_000, warmup = 5_000, size = 256, order = 3, batch = 32;
+    static byte[] source;
+    static final int COLD = 100; // peticiones por cliente que cuentan como "en frío"
+    /** Un payload vacío no trae EOF: con ambos codificadores decodifica hasta pasar de MAX_PAYLOAD y falla. */
+    static final byte[] GARBAGE = new byte[0];
+    static boolean failed, checkOnly;
+
+    public static void main(String[] args) throws Exception {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--clients": clients = Integer.parseInt(args[++i]); break;
+                case "--requests": requests = Integer.parseInt(args[++i]); break;
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                case "--size": size = Integer.parseInt(args[++i]); break;
+                case "--order": order = Integer.parseInt(args[++i]); break;
+                case "--batch": batch = Integer.parseInt(args[++i]); break;
+                case "--check": checkOnly = true; break;
+                default: throw new IllegalArgumentException("Argumento desconocido: " + args[i]);
+            }
+        }
+        source = BenchInputs.load("white");
+        Ppm.Options opt = new Ppm.Options(order);
+        checkPool(opt);
+        if (checkOnly) {
+            for (Ppm.CoderType coder : Ppm.CoderType.values()) {
+                Ppm.Options copt = new Ppm.Options(order).coder(coder);
+                try (PpmServer server = new PpmServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), copt)) {
+                    check("tcp " + coder, server.address(), copt);
+                }
+            }
+            Path sock = Files.createTempDirectory("ppm-load").resolve("ppm.sock");
+            try (PpmServer server = new PpmServer(UnixDomainSocketAddress.of(sock), opt)) {
+                check("unix", server.address(), opt);
+            } finally {
+                Files.deleteIfExists(sock.getParent());
+            }
+            finish();
+            return;
+        }
+
+        System.out.printf("=== PpmServer: %d clientes x %d peticiones de %d bytes, orden %d, lotes de %d ===%n",
+                clients, requests, size, order, batch);
+        System.out.printf("%-22s %10s %8s %12s %9s %10s %10s%n", "fase", "peticiones", "seg", "peticiones/s", "MB/s", "p50 µs", "p99 µs");
+
+        run("estática", () -> p -> each(p, d -> Ppm.compressBytes(d, opt)), 1, false, true);
+        PpmPool pool = new PpmPool(opt);
+        run("pool", () -> p -> each(p, d -> pool.compress(d, order)), 1, false, false);
+
+        try (PpmServer server = new PpmServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), opt)) {
+            SocketAddress tcp = server.address();
+            check("tcp", tcp, opt);
+            run("tcp", () -> client(tcp), 1, true, false);
+            run("tcp lotes", () -> client(tcp), batch, true, false);
+            System.out.println("servidor tcp: " + server.stats());
+        }
+        Path sock = Files.createTempDirectory("ppm-load").resolve("ppm.sock");
+        try (PpmServer server = new PpmServer(UnixDomainSocketAddress.of(sock), opt)) {
+            SocketAddress unix = server.address();
+            check("unix", unix, opt);
+            run("unix", () -> client(unix), 1, true, false);
+            run("unix lotes", () -> client(unix), batch, true, false);
+            System.out.println("servidor unix: " + server.stats());
+        } finally {
+            Files.deleteIfExists(sock.getParent());
+        }
+        finish();
+    }
+
+    static void finish() {
+        if (failed) {
+            System.out.println("FALLA: alguna revisión no pasó (ver arriba, o una salida del calentamiento no coincide con Ppm.compressBytes)");
+            System.exit(1);
+        }
+    }
+
+    static void fail(String what) {
+        System.out.println("FALLA: " + what);
+        failed = true;
+    }
+
+    /**
+     * Ida y vuelta contra un servidor real: payloads vacíos, de un byte, pedazos de white.csv y
+     * uno de 1 MB (éste no en orden 255, cuyo trie crece ~256 nodos por byte), en órdenes 0, el de
+     * la corrida y 255, uno por uno y por lotes; cada salida debe
+     * ser la de {@link Ppm#compressBytes} y descomprimir al original. También revisa que un orden
+     * fuera de rango falle en el cliente y que un error del servidor a media tanda no deje
+     * respuestas viejas en la conexión.
+     */
+    static void check(String name, SocketAddress address, Ppm.Options opt) throws Exception {
+        Random rnd = new Random(42);
+        List<byte[]> small = new ArrayList<>(List.of(new byte[0], new byte[] {'a'}));
+        for (int i = 0; i < 20; i++) {
+            int len = rnd.nextInt(4 * size), off = rnd.nextInt(source.length - len);
+            small.add(Arrays.copyOfRange(source, off, off + len));
+        }
+        List<byte[]> all = new ArrayList<>(small);
+        all.add(Arrays.copyOf(source, 1 << 20));
+        int checked = 0;
+        try (PpmClient c = new PpmClient(address)) {
+            for (int k : new int[] {0, order, PpmPool.MAX_ORDER}) {
+                List<byte[]> payloads = (k == PpmPool.MAX_ORDER) ? small : all;
+                Ppm.Options kopt = new Ppm.Options(k).coder(opt.coder).model(opt.model);
+                List<byte[]> batched = c.compressAll(payloads, k);
+                List<byte[]> back = c.decompressAll(batched, k);
+                for (int i = 0; i < payloads.size(); i++) {
+                    byte[] d = payloads.get(i), z = c.compress(d, k);
+                    if (!Arrays.equals(z, Ppm.compressBytes(d, kopt))) fail(name + ": orden " + k + ", payload " + i + " no coincide con Ppm.compressBytes");
+                    if (!Arrays.equals(z, batched.get(i))) fail(name + ": orden " + k + ", payload " + i + " cambia por lotes");
+                    if (!Arrays.equals(d, c.decompress(z, k))) fail(name + ": orden " + k + ", payload " + i + " no regresa al original");
+                    if (!Arrays.equals(d, back.get(i))) fail(name + ": orden " + k + ", payload " + i + " no regresa al original por lotes");
+                    checked++;
+                }
+            }
+            try {
+                c.compress(small.get(1), PpmPool.MAX_ORDER + 1);
+                fail(name + ": orden " + (PpmPool.MAX_ORDER + 1) + " aceptado");
+            } catch (IllegalArgumentException expected) { }
+            if (!Arrays.equals(small.get(3), c.decompress(c.compress(small.get(3), order), order)))
+                fail(name + ": la conexión no sigue sirviendo tras el orden rechazado");
+            // Un error a media tanda: las respuestas que siguen no deben quedarse en la conexión
+            byte[] ok = c.compress(small.get(3), order);
+            try {
+                c.decompressAll(List.of(ok, GARBAGE, ok), order);
+                fail(name + ": basura descomprimida sin error en una tanda");
+            } catch (java.io.IOException expected) { }
+            byte[] abc = "abc".getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+            if (!Arrays.equals(abc, c.decompress(c.compress(abc, order), order)))
+                fail(name + ": la conexión quedó desalineada tras un error a media tanda");
+        }
+        System.out.printf("ida y vuelta %s: %d payloads bien%n", name, checked);
+    }
+
+    /** Usa todos los órdenes con un tope chico de bytes libres: el pool nunca debe pasar de él. */
+    static void checkPool(Ppm.Options opt) throws Exception {
+        long cap = 4L << 20;
+        PpmPool pool = new PpmPool(opt, 4, cap);
+        byte[] d = Arrays.copyOf(source, size);
+        for (int round = 0; round < 2; round++) {
+            for (int k = 0; k <= PpmPool.MAX_ORDER; k++) {
+                if (!Arrays.equals(d, pool.decompress(pool.compress(d, k), k))) fail("pool: orden " + k + " no regresa al original");
+                if (pool.idleBytes() > cap) fail("pool: " + pool.idleBytes() + " bytes libres pasan del tope de " + cap);
+            }
+        }
+        if (pool.idle() == 0) fail("pool: no guardó ningún workspace");
+        System.out.printf("pool: %d órdenes, %d workspaces libres en %d bytes (tope %d)%n",
+                PpmPool.MAX_ORDER + 1, pool.idle(), pool.idleBytes(), cap);
+    }
+
+    interface Fn { byte[] apply(byte[] d) throws Exception; }
+
+    static List<byte[]> each(List<byte[]> payloads, Fn f) throws Exception {
+        List<byte[]> out = new ArrayList<>(payloads.size());
+        for (byte[] d : payloads) out.add(f.apply(d));
+        return out;
+    }
+
+    static Call client(SocketAddress address) throws Exception {
+        PpmClient c = new PpmClient(address);
+        return new Call() {
+            @Override public List<byte[]> run(List<byte[]> p) throws Exception {
+                return (p.size() == 1) ? List.of(c.compress(p.get(0), order)) : c.compressAll(p, order);
+            }
+            @Override public void close() throws Exception { c.close(); }
+        };
+    }
+
+    /** Corre una fase: cada cliente en su hilo (virtual si {@code virtual}) con su propia conexión. */
+    static void run(String name, Connect connect, int perCall, boolean virtual, boolean reportCold) throws Exception {
+        PpmServer.Latency cold = new PpmServer.Latency(), hot = new PpmServer.Latency();
+        long[] window = new long[2];
+        Thread[] threads = new Thread[clients];
+        Throwable[] error = new Throwable[1];
+        java.util.concurrent.CyclicBarrier start = new java.util.concurrent.CyclicBarrier(clients, () -> window[0] = System.nanoTime());
+        for (int t = 0; t < clients; t++) {
+            int id = t;
+            Runnable body = () -> {
+                try (Call call = connect.open()) {
+                    Random rnd = new Random(id);
+                    int first = Math.min(COLD, warmup);
+                    measure(call, rnd, first, perCall, cold, true);
+                    measure(call, rnd, warmup - first, perCall, null, true);
+                    start.await();
+                    measure(call, rnd, requests, perCall, hot, false);
+                } catch (Throwable e) {
+                    synchronized (error) { error[0] = e; }
+                    start.reset();
+                }
+            };
+            threads[t] = virtual ? Thread.ofVirtual().start(body) : Thread.ofPlatform().start(body);
+        }
+        for (Thread t : threads) t.join();
+        window[1] = System.nanoTime();
+        if (error[0] != null) throw new IllegalStateException("Fase " + name + " falló", error[0]);
+        if (reportCold) print(name + " en frío", cold, 0);
+        print(name, hot, (window[1] - window[0]) / 1e9);
+    }
+
+    static void measure(Call call, Random rnd, int n, int perCall, PpmServer.Latency lat, boolean verify) throws Exception {
+        for (int done = 0; done < n; ) {
+            int k = Math.min(perCall, n - done);
+            List<byte[]> payloads = new ArrayList<>(k);
+            for (int i = 0; i < k; i++) {
+                int off = rnd.nextInt(source.length - size);
+                payloads.add(Arrays.copyOfRange(source, off, off + size));
+            }
+            long t0 = System.nanoTime();
+            List<byte[]> out = call.run(payloads);
+            long dt = System.nanoTime() - t0;
+            if (lat != null) for (int i = 0; i < k; i++) lat.record(dt);
+            // Verificar sólo en el calentamiento, para no sumarle trabajo a la fase medida
+            if (verify) for (int i = 0; i < k; i++) if (!Arrays.equals(out.get(i), Ppm.compressBytes(payloads.get(i), order))) failed = true;
+            done += k;
+        }
+    }
+
+    static void print(String name, PpmServer.Latency lat, double secs) {
+        long n = lat.count();
+        System.out.printf("%-22s %10d %8s %12s %9s %10.1f %10.1f%n", name, n,
+                (secs == 0) ? "-" : String.format("%.2f", secs),
+                (secs == 0) ? "-" : String.format("%.0f", n / secs),
+                (secs == 0) ? "-" : String.format("%.2f", n * (double) size / secs / 1e6),
+                lat.percentile(0.50) / 1e3, lat.percentile(0.99) / 1e3);
+    }
+}
@@ -0,0 +1,135 @@
+package unam.iimas.ia.ml.ppm;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Prueba de aguante: comprime y descomprime en un solo stream (sin contenedor) una entrada
+ * sintética de varios GB y verifica byte por byte, sin tener nunca la entrada en memoria. La
+ * entrada es muy sesgada (un símbolo con probabilidad 63/64) y cambia de símbolo dominante cada
+ * 256 MB, así que en pocos GB un mismo contexto rebasa 2^30 y 2^31 cuentas: sin reescalado eso
+ * corrompe la salida o desborda los int.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar unam.iimas.ia.ml.ppm.PpmStress [bytes, p. ej. 3g] [--order k]
+ *      [--coder ARITH|RANGE] [--model TRIE|HASH|OFFHEAP] [--max-total n] [--seed s]
+ * </pre>
+ * Sale con 1 si la descompresión no coincide.
+ */
+public class PpmStress {
+
+    public static void main(String[] args) throws Exception {
+        long size = 3L << 30;
+        long seed = 1;
+        int order = 1;
+        Ppm.CoderType coder = Ppm.CoderType.ARITH;
+        Ppm.ModelType model = Ppm.ModelType.TRIE;
+        Integer maxTotal = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--order": order = Integer.parseInt(args[++i]); break;
+                case "--coder": coder = Ppm.CoderType.valueOf(args[++i]); break;
+                case "--model": model = Ppm.ModelType.valueOf(args[++i]); break;
+                case "--max-total": maxTotal = Integer.parseInt(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default: size = parseSize(args[i]);
+            }
+        }
+        Ppm.Options opt = new Ppm.Options(order).coder(coder).model(model);
+        if (maxTotal != null) opt.maxTotal(maxTotal);
+
+        Path tmp = Files.createTempFile("ppm-stress", ".ppm");
+        try {
+            long t0 = System.nanoTime();
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16)) {
+                Ppm.compressStream(new Synthetic(seed, size), out, opt);
+            }
+            double tc = (System.nanoTime() - t0) / 1e9;
+            long comp = Files.size(tmp);
+
+            t0 = System.nanoTime();
+            Verifier check = new Verifier(seed, size);
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(tmp), 1 << 16)) {
+                Ppm.decompressStream(in, check, opt);
+            }
+            double td = (System.nanoTime() - t0) / 1e9;
+            boolean ok = check.ok();
+
+            System.out.printf("%d bytes orden %d %s %s maxTotal %s: comprimido %d (%.4f bits/byte), "
+                            + "compresión %.1f MB/s, descompresión %.1f MB/s: %s%n",
+                    size, order, coder, model, (maxTotal == null) ? "omisión" : maxTotal, comp, comp * 8.0 / size,
+                    size / tc / 1e6, size / td / 1e6, ok ? "OK" : "FALLA (" + check.error() + ")");
+            if (!ok) System.exit(1);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static long parseSize(String s) {
+        s = s.trim().toLowerCase();
+        int shift = s.endsWith("k") ? 10 : s.endsWith("m") ? 20 : s.endsWith("g") ? 30 : 0;
+        if (shift > 0) s = s.substring(0, s.length() - 1);
+        return Long.parseLong(s) << shift;
+    }
+
+    // ======= Entrada sintética =======
+    /** Generador determinista (xorshift) de {@code size} bytes; la misma semilla da los mismos bytes. */
+    static final class Synthetic extends InputStream {
+        static final int PHASE_SHIFT = 28; // 256 MB por fase
+        private long state, pos;
+        private final long size;
+
+        Synthetic(long seed, long size) { this.state = seed * 0x9E3779B97F4A7C15L | 1; this.size = size; }
+
+        private int next() {
+            state ^= state << 13; state ^= state >>> 7; state ^= state << 17;
+            int main = 'a' + (int) ((pos >>> PHASE_SHIFT) % 26);
+            int r = (int) (state >>> 32);
+            return ((r & 63) != 0) ? main : ' ' + ((r >>> 8) & 63); // raro: cualquiera de 64 símbolos
+        }
+
+        @Override public int read() {
+            if (pos == size) return -1;
+            int b = next();
+            pos++;
+            return b;
+        }
+
+        @Override public int read(byte[] b, int off, int len) {
+            if (pos == size) return -1;
+            int n = (int) Math.min(len, size - pos);
+            for (int i = 0; i < n; i++) { b[off + i] = (byte) next(); pos++; }
+            return n;
+        }
+    }
+
+    /** Compara lo que se le escribe contra la entrada sintética; recuerda el primer error. */
+    static final class Verifier extends OutputStream {
+        private final Synthetic expected;
+        private final long size;
+        private long pos;
+        private String error;
+
+        Verifier(long seed, long size) { this.expected = new Synthetic(seed, size); this.size = size; }
+
+        @Override public void write(int b) { write(new byte[]{ (byte) b }, 0, 1); }
+
+        @Override public void write(byte[] b, int off, int len) {
+            for (int i = 0; i < len; i++, pos++) {
+                if (error != null) continue;
+                int e = expected.read();
+                if (e != (b[off + i] & 0xFF)) error = "byte " + pos + ": " + (b[off + i] & 0xFF) + " en vez de " + e;
+            }
+        }
+
+        boolean ok() {
+            if (error == null && pos != size) error = pos + " bytes de " + size;
+            return error == null;
+        }
+
+        String error() { return error; }
+    }
+}
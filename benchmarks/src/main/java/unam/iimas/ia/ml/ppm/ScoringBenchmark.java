@@ -0,0 +1,72 @@
+package unam.iimas.ia.ml.ppm;
+import org.openjdk.jmh.annotations.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renglones por segundo de {@link PpmScorer} sobre winequality-white: un modelo por etiqueta
+ * entrenado con el 80% de los renglones, y cada operación mide un renglón de prueba contra todos
+ * los modelos. {@code naive} hace lo mismo comprimiendo el renglón con {@link Ppm.Options#primer},
+ * que copia el modelo completo por renglón.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class ScoringBenchmark {
+
+    @Param({"2", "3", "5"})
+    public int order;
+
+    private PpmScorer[] models;
+    private byte[][] rows;
+
+    @State(Scope.Thread)
+    public static class Cursor { int i; }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        String[] lines = new String(BenchInputs.load("white"), StandardCharsets.UTF_8).split("\n");
+        List<String> all = new ArrayList<>(Arrays.asList(lines).subList(1, lines.length));
+        Collections.shuffle(all, new Random(BenchInputs.SEED));
+        int nTrain = all.size() * 8 / 10;
+
+        TreeMap<String, ByteArrayOutputStream> byLabel = new TreeMap<>();
+        for (String r : all.subList(0, nTrain))
+            byLabel.computeIfAbsent(r.substring(r.lastIndexOf(';') + 1).trim(), k -> new ByteArrayOutputStream())
+                    .writeBytes(features(r));
+        models = new PpmScorer[byLabel.size()];
+        int j = 0;
+        for (ByteArrayOutputStream bos : byLabel.values())
+            models[j++] = new PpmScorer(PrimedModel.train(new ByteArrayInputStream(bos.toByteArray()), order));
+
+        rows = all.subList(nTrain, all.size()).stream().map(ScoringBenchmark::features).toArray(byte[][]::new);
+    }
+
+    @Benchmark
+    public double fork(Cursor c) {
+        byte[] row = rows[c.i++ % rows.length];
+        double sum = 0;
+        for (PpmScorer m : models) sum += m.bits(row);
+        return sum;
+    }
+
+    @Benchmark
+    public double naive(Cursor c) throws IOException {
+        byte[] row = rows[c.i++ % rows.length];
+        double sum = 0;
+        for (PpmScorer m : models)
+            sum += Ppm.estimateCompressedBits(new ByteArrayInputStream(row), new Ppm.Options(order).primer(m.base()));
+        return sum;
+    }
+
+    private static byte[] features(String r) {
+        return (r.substring(0, r.lastIndexOf(';') + 1) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
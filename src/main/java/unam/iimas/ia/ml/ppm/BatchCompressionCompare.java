@@ -0,0 +1,303 @@
+package unam.iimas.ia.ml.ppm;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Corre la comparación de {@link DatasetCompressionCompare} sobre una rejilla archivos × porcentajes
+ * de entrenamiento × órdenes en una sola JVM, con un número acotado de trabajos a la vez (en hilos
+ * virtuales), y escribe una tabla CSV o JSON con tamaños, ratios y tiempos.
+ * <p>
+ * Lo compartido se calcula una vez: cada archivo se divide una vez por porcentaje (en memoria, sin
+ * TRN_/TST_ en disco) y sus partes las usan todos los órdenes; el original no depende del
+ * porcentaje y se comprime una vez por archivo. Al estimar (lo de omisión) ni siquiera hay un
+ * trabajo por orden: {@link Ppm#estimateCompressedBitsByOrder} saca todos los órdenes de una
+ * pasada. Con {@code --compress} sí hay una compresión real por orden (sin escribir los .ppm).
+ * <pre>
+ * BatchCompressionCompare --files a.csv,b.csv --percents 50,80 --orders 1-6
+ *                         [--shuffle semilla] [--compress] [--threads n] [--out tabla.csv|tabla.json]
+ * </pre>
+ * Los archivos relativos se buscan en src/main/resources, como en DatasetCompressionCompare.
+ * {@code ms} es el tiempo de la pasada que produjo el número: al estimar lo comparten todos los
+ * órdenes de una parte. Las partes train/test traen además {@code split_ms}, lo que tardó dividir.
+ */
+public class BatchCompressionCompare {
+
+    public static void main(String[] args) throws Exception {
+        List<String> files = new ArrayList<>(List.of("winequality-red.csv"));
+        int[] percents = { 80 };
+        int[] orders = { 3 };
+        Long seed = null;
+        boolean real = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String out = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--files": files = Arrays.asList(args[++i].split(",")); break;
+                case "--percents": percents = parseList(args[++i]); break;
+                case "--orders": orders = parseList(args[++i]); break;
+                case "--shuffle": seed = Long.parseLong(args[++i].trim()); break;
+                case "--compress": real = true; break;
+                case "--threads": threads = Integer.parseInt(args[++i].trim()); break;
+                case "--out": out = args[++i]; break;
+                default: throw new IllegalArgumentException("Opción desconocida: " + args[i]);
+            }
+        }
+        for (int p : percents) if (p < 0 || p > 100) throw new IllegalArgumentException("Porcentaje fuera de 0..100: " + p);
+        // Antes de partir archivos: un orden negativo fallaría hasta el hilo que lo corre
+        for (int k : orders)
+            if (k < 0 || k > PpmContainer.MAX_ORDER) throw new IllegalArgumentException("Orden fuera de 0.." + PpmContainer.MAX_ORDER + ": " + k);
+
+        Path dir = Paths.get("src" + File.separator + "main" + File.separator + "resources");
+        List<Path> paths = new ArrayList<>();
+        for (String f : files) {
+            Path p = Paths.get(f.trim());
+            paths.add(p.isAbsolute() || Files.exists(p) ? p : dir.resolve(p));
+        }
+
+        long t0 = System.nanoTime();
+        List<Row> rows = run(paths, percents, orders, seed, real, threads);
+        double secs = (System.nanoTime() - t0) / 1e9;
+
+        if (out == null) {
+            writeCsv(rows, System.out);
+        } else {
+            try (PrintStream ps = new PrintStream(Files.newOutputStream(Paths.get(out)), false, StandardCharsets.UTF_8)) {
+                if (out.endsWith(".json")) writeJson(rows, ps); else writeCsv(rows, ps);
+            }
+        }
+        System.err.printf("%d renglones de resultados, %d hilos, %.2f s%n", rows.size(), threads, secs);
+    }
+
+    // ======= Rejilla =======
+    /** Un renglón de la tabla de resultados. {@code percent} es -1 para el original. */
+    public static final class Row {
+        public final String file, part;
+        public final int percent, order;
+        public final long rows, bytes, compressed;
+        public final double ms, splitMs;
+        Row(String file, int percent, String part, int order, long rows, long bytes, long compressed, double ms, double splitMs) {
+            this.file = file; this.percent = percent; this.part = part; this.order = order; this.rows = rows;
+            this.bytes = bytes; this.compressed = compressed; this.ms = ms; this.splitMs = splitMs;
+        }
+        public double ratio() { return (bytes <= 0) ? 0.0 : compressed * 1.0 / bytes; }
+    }
+
+    /**
+     * Arma los trabajos de la rejilla y los corre en hilos virtuales, con a lo más {@code threads}
+     * trabajando a la vez (un semáforo: los demás esperan su turno sin ocupar un hilo del sistema).
+     * Ningún trabajo espera bloqueado a otro: los que dependen de una división se encadenan a su
+     * future, así el límite no puede trabar la rejilla. Cada división se suelta en cuanto terminan sus
+     * órdenes. Los renglones salen en orden archivo, porcentaje, parte, orden.
+     */
+    public static List<Row> run(List<Path> files, int[] percents, int[] orders, Long seed, boolean real, int threads)
+            throws IOException {
+        if (orders.length == 0) throw new IllegalArgumentException("Sin órdenes");
+        int maxOrder = Arrays.stream(orders).max().getAsInt();
+        ExecutorService virtual = Executors.newVirtualThreadPerTaskExecutor();
+        Semaphore permits = new Semaphore(Math.max(1, threads));
+        Executor pool = task -> virtual.execute(() -> {
+            permits.acquireUninterruptibly();
+            try {
+                task.run();
+            } finally {
+                permits.release();
+            }
+        });
+        try {
+            List<CompletableFuture<List<Row>>> jobs = new ArrayList<>();
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                if (!Files.isRegularFile(f)) throw new IOException("No existe: " + f.toAbsolutePath());
+                // Original: una vez por archivo, sin importar el porcentaje
+                jobs.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        byte[] data = Files.readAllBytes(f);
+                        return measure(name, -1, "original", -1, data, data.length, orders, maxOrder, real, 0, pool);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, pool).thenCompose(BatchCompressionCompare::all));
+
+                for (int p : percents) {
+                    SplitDataset.Options so = new SplitDataset.Options().percentTrain(p);
+                    if (seed != null) so.shuffle(seed);
+                    // Una división por (archivo, porcentaje); train y test cuelgan de ella
+                    CompletableFuture<Parts> split = CompletableFuture.supplyAsync(() -> {
+                        long s = System.nanoTime();
+                        Parts parts = new Parts();
+                        try {
+                            SplitDataset.split(f, so, parts);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        parts.ms = (System.nanoTime() - s) / 1e6;
+                        return parts;
+                    }, pool);
+                    for (int part = 0; part < 2; part++) {
+                        int pi = part;
+                        jobs.add(split.thenCompose(parts -> all(measure(name, p, (pi == 0) ? "train" : "test",
+                                parts.counts[pi], parts.data[pi], parts.size[pi], orders, maxOrder, real, parts.ms, pool))));
+                    }
+                }
+            }
+
+            List<Row> rows = new ArrayList<>();
+            for (CompletableFuture<List<Row>> j : jobs) rows.addAll(j.join());
+            return rows;
+        } catch (CompletionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof UncheckedIOException) throw ((UncheckedIOException) c).getCause();
+            if (c instanceof RuntimeException) throw (RuntimeException) c;
+            throw e;
+        } finally {
+            virtual.shutdownNow();
+        }
+    }
+
+    /**
+     * Trabajos de una parte: al estimar, uno solo con todos los órdenes; con compresión real, uno
+     * por orden. Cada uno entrega sus renglones.
+     */
+    private static List<CompletableFuture<List<Row>>> measure(String file, int percent, String part, long rows, byte[] data, int len,
+                                                              int[] orders, int maxOrder, boolean real, double splitMs,
+                                                              Executor pool) {
+        List<CompletableFuture<List<Row>>> out = new ArrayList<>();
+        if (!real) {
+            out.add(CompletableFuture.supplyAsync(() -> {
+                long s = System.nanoTime();
+                double[] bits;
+                try {
+                    bits = Ppm.estimateCompressedBitsByOrder(new ByteArrayInputStream(data, 0, len), maxOrder);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                double ms = (System.nanoTime() - s) / 1e6;
+                List<Row> r = new ArrayList<>();
+                for (int k : orders)
+                    r.add(new Row(file, percent, part, k, rows, len, (long) Math.ceil(bits[k] / 8), ms, splitMs));
+                return r;
+            }, pool));
+            return out;
+        }
+        for (int k : orders) {
+            out.add(CompletableFuture.supplyAsync(() -> {
+                long s = System.nanoTime();
+                CountingOutput c = new CountingOutput();
+                try {
+                    Ppm.compressStream(new ByteArrayInputStream(data, 0, len), c, new Ppm.Options(k));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return List.of(new Row(file, percent, part, k, rows, len, c.count, (System.nanoTime() - s) / 1e6, splitMs));
+            }, pool));
+        }
+        return out;
+    }
+
+    private static CompletableFuture<List<Row>> all(List<CompletableFuture<List<Row>>> parts) {
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            List<Row> r = new ArrayList<>();
+            for (CompletableFuture<List<Row>> p : parts) r.addAll(p.join());
+            return r;
+        });
+    }
+
+    /** Train y test en memoria, con los mismos bytes que tendrían TRN_/TST_ (los primeros {@code size} de cada arreglo). */
+    private static final class Parts implements SplitDataset.RowSink {
+        final byte[][] data = { new byte[1 << 16], new byte[1 << 16] };
+        final int[] size = new int[2];
+        final long[] counts = new long[2];
+        double ms;
+
+        @Override public void row(int partition, byte[] buf, int off, int len) {
+            int n = size[partition] + len + 1;
+            if (n > data[partition].length) data[partition] = Arrays.copyOf(data[partition], Math.max(n, data[partition].length * 2));
+            System.arraycopy(buf, off, data[partition], size[partition], len);
+            data[partition][n - 1] = '\n';
+            size[partition] = n;
+            counts[partition]++;
+        }
+    }
+
+    /** Sólo cuenta lo que se escribe. */
+    private static final class CountingOutput extends OutputStream {
+        long count;
+        @Override public void write(int b) { count++; }
+        @Override public void write(byte[] b, int off, int len) { count += len; }
+    }
+
+    // ======= Salida =======
+    private static void writeCsv(List<Row> rows, PrintStream out) {
+        out.println("file,percent,part,order,rows,bytes,compressed,ratio,ms,split_ms");
+        for (Row r : rows) {
+            out.println(String.format(Locale.ROOT, "%s,%s,%s,%d,%s,%d,%d,%.6f,%.3f,%s",
+                    csv(r.file), (r.percent < 0) ? "" : String.valueOf(r.percent), r.part, r.order,
+                    (r.percent < 0) ? "" : String.valueOf(r.rows), r.bytes, r.compressed, r.ratio(), r.ms,
+                    (r.percent < 0) ? "" : String.format(Locale.ROOT, "%.3f", r.splitMs)));
+        }
+        out.flush();
+    }
+
+    private static void writeJson(List<Row> rows, PrintStream out) {
+        out.println("[");
+        for (int i = 0; i < rows.size(); i++) {
+            Row r = rows.get(i);
+            String orig = (r.percent < 0) ? "null" : null;
+            out.print(String.format(Locale.ROOT,
+                    "  {\"file\": %s, \"percent\": %s, \"part\": \"%s\", \"order\": %d, \"rows\": %s, \"bytes\": %d, "
+                            + "\"compressed\": %d, \"ratio\": %.6f, \"ms\": %.3f, \"split_ms\": %s}",
+                    json(r.file), (orig != null) ? orig : String.valueOf(r.percent), r.part, r.order,
+                    (orig != null) ? orig : String.valueOf(r.rows), r.bytes, r.compressed, r.ratio(), r.ms,
+                    (orig != null) ? orig : String.format(Locale.ROOT, "%.3f", r.splitMs)));
+            out.println((i + 1 < rows.size()) ? "," : "");
+        }
+        out.println("]");
+        out.flush();
+    }
+
+    private static String csv(String s) {
+        return (s.indexOf(',') < 0 && s.indexOf('"') < 0) ? s : '"' + s.replace("\"", "\"\"") + '"';
+    }
+
+    private static String json(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    /** "1-6", "50,80" o una mezcla: "1-3,5". */
+    private static int[] parseList(String s) {
+        List<Integer> r = new ArrayList<>();
+        for (String t : s.split(",")) {
+            t = t.trim();
+            int dash = t.indexOf('-', 1);
+            if (dash < 0) { r.add(Integer.parseInt(t)); continue; }
+            int from = Integer.parseInt(t.substring(0, dash).trim()), to = Integer.parseInt(t.substring(dash + 1).trim());
+            if (to < from) throw new IllegalArgumentException("Rango inválido: " + t);
+            for (int v = from; v <= to; v++) r.add(v);
+        }
+        return r.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -1,8 +1,16 @@
 package unam.iimas.ia.ml.ppm;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
 
 public class DatasetCompressionCompare {
 
@@ -13,7 +21,27 @@ public class DatasetCompressionCompare {
     private static final String COMPRESSED_EXT = ".ppm";          // extensión de salida Ppm
 
     public static void main(String[] args) throws Exception {
-        // Parámetros opcionales por CLI: <archivo> <porcentaje> <orden_ppm>
+        // Parámetros opcionales por CLI: <archivo> <porcentaje> <orden_ppm> [--compress] [--orders a-b] [--primed]
+        //                                [--pipeline] [--shuffle semilla]
+        // Por omisión sólo se estima el tamaño comprimido con el modelo (sin coder ni archivos .ppm);
+        // --compress comprime de verdad y escribe los .ppm. --orders 1-8 imprime una tabla por orden
+        // calculada en una sola pasada por archivo. --primed agrega TST comprimido con el modelo de TRN.
+        // --pipeline divide y comprime a la vez sin escribir TRN_/TST_ (ver pipeline()).
+        boolean realCompression = false, primed = false, pipelined = false;
+        String orders = null;
+        Long seed = null;
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            if (a.equals("--compress")) realCompression = true;
+            else if (a.equals("--primed")) primed = true;
+            else if (a.equals("--pipeline")) pipelined = true;
+            else if (a.equals("--shuffle") && i + 1 < args.length) seed = Long.parseLong(args[++i].trim());
+            else if (a.equals("--orders") && i + 1 < args.length) orders = args[++i];
+            else if (a.startsWith("--orders=")) orders = a.substring("--orders=".length());
+            else positional.add(a);
+        }
+        args = positional.toArray(new String[0]);
         String fileName = (args.length >= 1) ? args[0] : DEFAULT_FILE_NAME;
         int percentTrain = (args.length >= 2) ? parseInt(args[1], DEFAULT_PERCENT_TRAIN) : DEFAULT_PERCENT_TRAIN;
         int ppmOrder = (args.length >= 3) ? parseInt(args[2], PPM_ORDER) : PPM_ORDER;
@@ -22,31 +50,59 @@ public class DatasetCompressionCompare {
         Path filePath = Paths.get("src"+ File.separator + "main" + File.separator + "resources");
 
         // Rutas del archivo original y de sus derivados TRN_/TST_
-        Path original = Paths.get("src"+ File.separator + "main" + File.separator + "resources" + File.separator + DEFAULT_FILE_NAME);
+        Path original = Paths.get("src"+ File.separator + "main" + File.separator + "resources" + File.separator + fileName);
         String base = baseName(fileName);
         String ext = extension(fileName);
         Path trnFile = filePath.resolve("TRN_" + base + ext);
         Path tstFile = filePath.resolve("TST_" + base + ext);
 
-        // 1) Dividir con SplitDataset (quita encabezado y escribe TRN_ y TST_)
+        SplitDataset.Options splitOpt = new SplitDataset.Options().percentTrain(percentTrain);
+        if (seed != null) splitOpt.shuffle(seed);
+        Ppm.Options opt = new Ppm.Options(ppmOrder);
+        Path originalCompressed = changeExtension(filePath.resolve(base + ext), COMPRESSED_EXT);
+        Path trnCompressed = changeExtension(trnFile, COMPRESSED_EXT);
+        Path tstCompressed = changeExtension(tstFile, COMPRESSED_EXT);
+        long origSize, trnSize, tstSize, origComp, trnComp, tstComp;
+
         System.out.println("=== División de dataset ===");
         System.out.println("Archivo original: " + original.toAbsolutePath());
         System.out.println("Porcentaje train: " + percentTrain + "%");
-        SplitDataset.main(new String[]{ fileName, String.valueOf(percentTrain) });
+        if (pipelined) {
+            if (orders != null || primed) throw new IllegalArgumentException("--pipeline no se combina con --orders ni --primed");
+            // 1-2) Dividir y comprimir en un solo recorrido, sin TRN_/TST_ en disco
+            System.out.println("\n=== " + (realCompression ? "Compresión" : "Estimación de compresión")
+                    + " en línea con Ppm (orden " + ppmOrder + ") ===");
+            long t0 = System.nanoTime();
+            long[][] r = pipeline(original, splitOpt, opt, realCompression,
+                    new Path[]{ originalCompressed, trnCompressed, tstCompressed });
+            System.out.printf("Tiempo: %.1f ms%n", (System.nanoTime() - t0) / 1e6);
+            origSize = r[0][0]; trnSize = r[0][1]; tstSize = r[0][2];
+            origComp = r[1][0]; trnComp = r[1][1]; tstComp = r[1][2];
+        } else {
+            // 1) Dividir con SplitDataset (quita encabezado y escribe TRN_ y TST_)
+            SplitDataset.Result split = SplitDataset.split(original, filePath, splitOpt);
+            System.out.println("→ Train (" + split.counts[0] + "): " + trnFile.toAbsolutePath());
+            System.out.println("→ Test  (" + split.counts[1] + "): " + tstFile.toAbsolutePath());
 
-        // 2) Comprimir original, TRN y TST con Ppm
-        System.out.println("\n=== Compresión con Ppm (orden " + ppmOrder + ") ===");
-        Path originalCompressed = changeExtension(filePath.resolve(base + ext), COMPRESSED_EXT);
-        Path trnCompressed = changeExtension(trnFile, COMPRESSED_EXT);
-        Path tstCompressed = changeExtension(tstFile, COMPRESSED_EXT);
+            if (orders != null) {
+                int dash = orders.indexOf('-');
+                int from = parseInt((dash < 0) ? orders : orders.substring(0, dash), 1);
+                int to = parseInt((dash < 0) ? orders : orders.substring(dash + 1), 8);
+                printOrderSweep(new Path[]{ original, trnFile, tstFile }, new String[]{ "Original", "TRN", "TST" }, from, to);
+                return;
+            }
 
-        long origSize = sizeOf(original);
-        long trnSize  = sizeOf(trnFile);
-        long tstSize  = sizeOf(tstFile);
+            // 2) Comprimir original, TRN y TST con Ppm
+            System.out.println("\n=== " + (realCompression ? "Compresión" : "Estimación de compresión")
+                    + " con Ppm (orden " + ppmOrder + ") ===");
+            origSize = sizeOf(original);
+            trnSize  = sizeOf(trnFile);
+            tstSize  = sizeOf(tstFile);
 
-        long origComp = Ppm.compressFile(original.toString(), originalCompressed.toString(), ppmOrder);
-        long trnComp  = Ppm.compressFile(trnFile.toString(),    trnCompressed.toString(),    ppmOrder);
-        long tstComp  = Ppm.compressFile(tstFile.toString(),    tstCompressed.toString(),    ppmOrder);
+            origComp = compressedSize(original, originalCompressed, opt, realCompression);
+            trnComp  = compressedSize(trnFile,  trnCompressed,      opt, realCompression);
+            tstComp  = compressedSize(tstFile,  tstCompressed,      opt, realCompression);
+        }
 
         // 3) Ratios de compresión (comprimido / original_de_ese_archivo)
         double rOrig = ratio(origComp, origSize);
@@ -62,20 +118,34 @@ public class DatasetCompressionCompare {
         System.out.println("  Ruta: " + original);
         System.out.println("  Tamaño: " + origSize + "  Comprimido: " + origComp + "  Ratio: " + df3.format(rOrig) + "  (Reducción: " + df2.format((1 - rOrig) * 100) + "%)");
         System.out.println("TRN:");
-        System.out.println("  Ruta: " + trnFile);
+        System.out.println("  Ruta: " + (pipelined ? "(en memoria)" : trnFile));
         System.out.println("  Tamaño: " + trnSize + "  Comprimido: " + trnComp + "  Ratio: " + df3.format(rTrn) + "  (Reducción: " + df2.format((1 - rTrn) * 100) + "%)");
         System.out.println("TST:");
-        System.out.println("  Ruta: " + tstFile);
+        System.out.println("  Ruta: " + (pipelined ? "(en memoria)" : tstFile));
         System.out.println("  Tamaño: " + tstSize + "  Comprimido: " + tstComp + "  Ratio: " + df3.format(rTst) + "  (Reducción: " + df2.format((1 - rTst) * 100) + "%)");
 
+        if (primed) {
+            // TST arrancando del modelo entrenado con TRN en vez de un modelo vacío
+            Ppm.Options primedOpt = new Ppm.Options(ppmOrder).primer(PrimedModel.train(trnFile, ppmOrder));
+            Path primedCompressed = changeExtension(tstFile, ".primed" + COMPRESSED_EXT);
+            long tstPrimed = compressedSize(tstFile, primedCompressed, primedOpt, realCompression);
+            double rPrimed = ratio(tstPrimed, tstSize);
+            System.out.println("TST con modelo de TRN:");
+            System.out.println("  Comprimido: " + tstPrimed + "  Ratio: " + df3.format(rPrimed) + "  (Reducción: " + df2.format((1 - rPrimed) * 100) + "%)");
+        }
+
         //System.out.println("\n=== Comparación de tasas (ratio) ===");
         //compareRatios("Original vs TRN", rOrig, rTrn, df3, df2);
         //compareRatios("Original vs TST", rOrig, rTst, df3, df2);
 
-        System.out.println("\nArchivos comprimidos creados:");
-        System.out.println("  " + originalCompressed.toAbsolutePath());
-        System.out.println("  " + trnCompressed.toAbsolutePath());
-        System.out.println("  " + tstCompressed.toAbsolutePath());
+        if (realCompression) {
+            System.out.println("\nArchivos comprimidos creados:");
+            System.out.println("  " + originalCompressed.toAbsolutePath());
+            System.out.println("  " + trnCompressed.toAbsolutePath());
+            System.out.println("  " + tstCompressed.toAbsolutePath());
+        } else {
+            System.out.println("\n(Tamaños comprimidos estimados; usa --compress para escribir los .ppm)");
+        }
     }
 
     // ===== Helpers =====
@@ -95,6 +165,89 @@ public class DatasetCompressionCompare {
                 "(mejora de B vs A: " + df2.format((-diff / rA) * 100) + "%)");
     }
 
+    /**
+     * Divide y comprime en un solo recorrido del original: el archivo completo, TRN y TST van cada
+     * uno a su codificador en un hilo propio, conectados al lector por colas acotadas
+     * ({@link SplitDataset.ConcurrentSink}). No se escriben TRN_/TST_; con {@code real} sólo se
+     * escriben los .ppm finales. Regresa {tamaños originales, tamaños comprimidos} en el orden
+     * original, TRN, TST. Sin semilla el divisor además cuenta los renglones antes (ver SplitDataset).
+     */
+    static long[][] pipeline(Path original, SplitDataset.Options split, Ppm.Options opt, boolean real,
+                             Path[] outputs) throws IOException {
+        long[] sizes = new long[3], comp = new long[3];
+        SplitDataset.ConcurrentSink.Target[] t = new SplitDataset.ConcurrentSink.Target[3];
+        for (int i = 0; i < 3; i++) {
+            int part = i;
+            t[i] = rows -> {
+                CountingInput in = new CountingInput(rows);
+                if (real) {
+                    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(outputs[part]), 1 << 16)) {
+                        Ppm.compressStream(in, out, opt);
+                    }
+                    comp[part] = Files.size(outputs[part]);
+                } else {
+                    comp[part] = (long) Math.ceil(Ppm.estimateCompressedBits(in, opt) / 8);
+                }
+                sizes[part] = in.count;
+            };
+        }
+        try (SplitDataset.ConcurrentSink sink = new SplitDataset.ConcurrentSink(List.of(t[1], t[2]), false, t[0])) {
+            SplitDataset.split(original, split, sink);
+        }
+        return new long[][]{ sizes, comp };
+    }
+
+    /** Cuenta los bytes leídos. */
+    private static final class CountingInput extends FilterInputStream {
+        long count;
+        CountingInput(InputStream in) { super(in); }
+        @Override public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+
+    /** Tabla de tamaños estimados por orden: una pasada por archivo con el modelo del orden mayor. */
+    private static void printOrderSweep(Path[] files, String[] names, int from, int to) throws IOException {
+        if (from < 0 || to < from) throw new IllegalArgumentException("Rango de órdenes inválido: " + from + "-" + to);
+        double[][] bits = new double[files.length][];
+        long[] sizes = new long[files.length];
+        for (int f = 0; f < files.length; f++) {
+            sizes[f] = sizeOf(files[f]);
+            try (InputStream is = Files.newInputStream(files[f])) {
+                bits[f] = Ppm.estimateCompressedBitsByOrder(is, to);
+            }
+        }
+
+        DecimalFormat df3 = new DecimalFormat("0.000");
+        System.out.println("\n=== Estimación por orden (" + from + ".." + to + ", una pasada por archivo) ===");
+        StringBuilder head = new StringBuilder(String.format("%-6s", "orden"));
+        for (String n : names) head.append(String.format(" %12s %7s", n + " bytes", "ratio"));
+        System.out.println(head);
+        for (int k = from; k <= to; k++) {
+            StringBuilder row = new StringBuilder(String.format("%-6d", k));
+            for (int f = 0; f < files.length; f++) {
+                long comp = (long) Math.ceil(bits[f][k] / 8);
+                row.append(String.format(" %12d %7s", comp, df3.format(ratio(comp, sizes[f]))));
+            }
+            System.out.println(row);
+        }
+    }
+
+    /** Tamaño comprimido en bytes: real (escribe {@code out}) o estimado con el modelo. */
+    private static long compressedSize(Path in, Path out, Ppm.Options opt, boolean real) throws IOException {
+        if (real) return Ppm.compressFile(in.toString(), out.toString(), opt);
+        try (InputStream is = Files.newInputStream(in)) {
+            return (long) Math.ceil(Ppm.estimateCompressedBits(is, opt) / 8);
+        }
+    }
+
     private static long sizeOf(Path p) {
         File f = p.toFile();
         if (!f.exists()) throw new RuntimeException("No existe: " + p.toAbsolutePath());
@@ -0,0 +1,495 @@
+package unam.iimas.ia.ml.ppm;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Preproceso reversible para CSV numéricos (ver {@link Ppm.Options#numericCsv}). La entrada se
+ * corta en bloques de renglones completos; en cada bloque se detecta el separador y, para cada
+ * columna, la escala decimal fija (el máximo de decimales que aparece). Los renglones cuyos campos
+ * son todos números en forma canónica se guardan como enteros escalados de ancho fijo en bytes, así
+ * que un renglón de winequality pasa de ~54 símbolos a ~15 por {@code encodeSymbol}; el resto
+ * (encabezado, renglones raros) pasa tal cual. Al descomprimir se reescribe el texto idéntico.
+ *
+ * <pre>
+ * por bloque: largo del cuerpo (int) | cuerpo
+ * cuerpo:     separador (1 byte) | columnas (1 byte) | por columna: escala (1 byte) | modo (1 byte)
+ *             | ancho en bytes (1 byte) | base (long) [| DICT: valores (int) | diferencias (varint)]
+ *             | renglones: NUMERIC + un valor por columna (big-endian, {@code ancho} bytes)
+ *                        | TEXT + bytes del renglón + '\n'
+ *                        | TAIL + bytes hasta el final del cuerpo (último renglón sin '\n')
+ * fin:        -1 (int)
+ * </pre>
+ * Modo FIXED guarda valor - base (base = mínimo del bloque); DELTA guarda la diferencia con el
+ * renglón numérico anterior en zigzag (base = primer valor); DICT guarda el índice del valor en la
+ * lista ordenada de valores distintos del bloque, que va en el cuerpo. Se elige por columna el de
+ * menor ancho: DELTA gana en columnas ordenadas, como un id o una marca de tiempo, y DICT en
+ * columnas con pocos valores pero muchos decimales (el alcohol de winequality trae hasta 13).
+ * <p>
+ * Forma canónica: {@code -?(0|[1-9][0-9]*)(\.[0-9]*[1-9])?}, sin "-0" y con a lo más
+ * {@link #MAX_DIGITS} dígitos entre parte entera y escala. Es la que se puede reconstruir desde el
+ * entero: "7" y "6.3" en la misma columna se guardan como 70 y 63 con escala 1 y regresan igual,
+ * pero "7.0" o "007" no, y ese renglón va como texto.
+ */
+public class NumericCsv {
+
+    static final int END = -1;
+    static final int BLOCK_SIZE = 1 << 20;
+    static final int MAX_DIGITS = 17; // |valor| < 10^17: la diferencia en zigzag cabe en un long
+    static final int NUMERIC = 0, TEXT = 1, TAIL = 2;
+    static final int FIXED = 0, DELTA = 1, DICT = 2;
+    private static final byte[] SEPARATORS = {';', ',', '\t', '|'};
+    private static final int SAMPLE_LINES = 32;
+    private static final long[] POW10 = new long[MAX_DIGITS + 1];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) POW10[i] = POW10[i - 1] * 10;
+    }
+
+    // ======= Compresión =======
+    static void compress(InputStream in, OutputStream out, Ppm.Options opt) throws IOException {
+        Ppm.compressStream(new Encoder(in), out, innerOptions(opt));
+    }
+
+    // ======= Descompresión =======
+    static void decompress(InputStream in, OutputStream out, Ppm.Options opt) throws IOException {
+        Decoder dec = new Decoder(out);
+        Ppm.decompressStream(in, dec, innerOptions(opt));
+        if (!dec.finished()) throw new IOException("CSV numérico truncado: falta el fin de bloques");
+        out.flush();
+    }
+
+    // ======= Helpers =======
+
+    /** Las mismas opciones sin el preproceso: lo que ve el núcleo (o el contenedor) ya viene transformado. */
+    private static Ppm.Options innerOptions(Ppm.Options opt) {
+        return new Ppm.Options(opt.order).model(opt.model).coder(opt.coder).maxTotal(opt.maxTotal)
+                .blockSize(opt.blockSize).parallelism(opt.parallelism)
+                .memoryPolicy(opt.memoryPolicy).maxModelBytes(opt.maxModelBytes)
+                .report(opt.report).primer(opt.primer).metrics(opt.metrics);
+    }
+
+    /** Bytes necesarios para guardar {@code v} >= 0 sin signo. */
+    private static int width(long v) {
+        return (v == 0) ? 0 : (64 - Long.numberOfLeadingZeros(v) + 7) >>> 3;
+    }
+
+    /**
+     * Lee el campo {@code [from, to)} si está en forma canónica: regresa el valor escalado por sus
+     * propios decimales y deja los decimales en {@code dec[0]} y los dígitos enteros en {@code dec[1]};
+     * si no es canónico regresa {@link Long#MIN_VALUE}.
+     */
+    static long parse(byte[] b, int from, int to, int[] dec) {
+        int i = from;
+        boolean neg = (i < to && b[i] == '-');
+        if (neg) i++;
+        int intStart = i;
+        long v = 0;
+        while (i < to && b[i] >= '0' && b[i] <= '9') v = v * 10 + (b[i++] - '0');
+        int intDigits = i - intStart;
+        if (intDigits == 0 || intDigits > MAX_DIGITS || (intDigits > 1 && b[intStart] == '0')) return Long.MIN_VALUE;
+        int scale = 0;
+        if (i < to && b[i] == '.') {
+            i++;
+            int fracStart = i;
+            while (i < to && b[i] >= '0' && b[i] <= '9') v = v * 10 + (b[i++] - '0');
+            scale = i - fracStart;
+            if (scale == 0 || b[i - 1] == '0' || intDigits + scale > MAX_DIGITS) return Long.MIN_VALUE;
+        }
+        if (i != to || (neg && v == 0)) return Long.MIN_VALUE;
+        dec[0] = scale;
+        dec[1] = intDigits;
+        return neg ? -v : v;
+    }
+
+    /** Escribe {@code v} con escala {@code scale} en forma canónica. */
+    static int format(long v, int scale, byte[] out, int pos) {
+        if (v < 0) { out[pos++] = '-'; v = -v; }
+        long p = POW10[scale];
+        pos = digits(v / p, out, pos);
+        long frac = v % p;
+        if (frac != 0) {
+            int t = scale;
+            while (frac % 10 == 0) { frac /= 10; t--; }
+            out[pos++] = '.';
+            for (int k = t - 1; k >= 0; k--) { out[pos + k] = (byte) ('0' + frac % 10); frac /= 10; }
+            pos += t;
+        }
+        return pos;
+    }
+
+    private static int digits(long v, byte[] out, int pos) {
+        int n = 1;
+        for (long x = v; x >= 10; x /= 10) n++;
+        for (int k = n - 1; k >= 0; k--) { out[pos + k] = (byte) ('0' + v % 10); v /= 10; }
+        return pos + n;
+    }
+
+    // ======= Transformación de un bloque =======
+    /** Transforma un bloque de renglones (el último puede no terminar en '\n') en su cuerpo binario. */
+    static byte[] encodeBlock(byte[] b) {
+        int[] lineEnd = lineEnds(b);
+        int lines = lineEnd.length;
+        byte sep = pickSeparator(b, lineEnd);
+        int cols = (sep == 0) ? 0 : columns(b, lineEnd, sep);
+
+        // Primera pasada: valores y decimales de los renglones numéricos. Sólo ellos ocupan lugar
+        // en vals (slot[r] = su renglón ahí, -1 si va como texto): un renglón numérico de cols
+        // campos mide al menos 2 * cols bytes, así que vals no pasa de ~b.length / 2 valores
+        // aunque el bloque traiga muchas líneas vacías.
+        int[] dec = new int[2];
+        int[] scale = new int[cols], intDigits = new int[cols], rowInt = new int[cols], rowScale = new int[cols];
+        long[] rowVals = new long[cols];
+        int capacity = (cols == 0) ? 0 : b.length / (2 * cols) + 1;
+        long[] vals = new long[cols * capacity];
+        int[] valScale = new int[vals.length];
+        int[] slot = new int[lines];
+        Arrays.fill(slot, -1);
+        int numericRows = 0;
+        for (int r = 0, start = 0; r < lines; start = lineEnd[r++] + 1) {
+            if (cols == 0 || lineEnd[r] == b.length) continue; // sin '\n': va como TAIL
+            int f = 0;
+            for (int i = start, from = start; i <= lineEnd[r]; i++) {
+                if (i < lineEnd[r] && b[i] != sep) continue;
+                long v = (f < cols) ? parse(b, from, i, dec) : Long.MIN_VALUE;
+                if (v == Long.MIN_VALUE) { f = -1; break; }
+                rowVals[f] = v;
+                rowScale[f] = dec[0];
+                rowInt[f] = dec[1];
+                from = i + 1;
+                f++;
+            }
+            if (f != cols) continue;
+            int k = numericRows++;
+            slot[r] = k;
+            System.arraycopy(rowVals, 0, vals, k * cols, cols);
+            System.arraycopy(rowScale, 0, valScale, k * cols, cols);
+            for (int c = 0; c < cols; c++) {
+                scale[c] = Math.max(scale[c], rowScale[c]);
+                intDigits[c] = Math.max(intDigits[c], rowInt[c]);
+            }
+        }
+        for (int c = 0; c < cols; c++) {
+            // Con la escala común el entero no cabría: el bloque va como texto
+            if (intDigits[c] + scale[c] > MAX_DIGITS) { Arrays.fill(slot, -1); numericRows = 0; break; }
+        }
+
+        // Escala común, base y ancho por columna
+        int[] mode = new int[cols], width = new int[cols];
+        long[] base = new long[cols];
+        long[][] dict = new long[cols][];
+        long[] column = new long[numericRows];
+        for (int c = 0; c < cols; c++) {
+            int count = 0;
+            long min = Long.MAX_VALUE, max = Long.MIN_VALUE, first = 0, prev = 0, maxZig = 0;
+            boolean any = false;
+            for (int r = 0; r < lines; r++) {
+                if (slot[r] < 0) continue;
+                int at = slot[r] * cols + c;
+                long v = vals[at] * POW10[scale[c] - valScale[at]];
+                vals[at] = v;
+                column[count++] = v;
+                if (!any) { first = v; prev = v; any = true; }
+                long d = v - prev;
+                maxZig = Math.max(maxZig, (d << 1) ^ (d >> 63));
+                prev = v;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            if (!any) continue;
+            Arrays.sort(column, 0, count);
+            int distinct = 0;
+            for (int i = 0; i < count; i++) if (i == 0 || column[i] != column[i - 1]) column[distinct++] = column[i];
+            int fixedWidth = width(max - min), deltaWidth = width(maxZig), dictWidth = width(distinct - 1);
+            if (dictWidth < Math.min(fixedWidth, deltaWidth)) {
+                mode[c] = DICT; width[c] = dictWidth; dict[c] = Arrays.copyOf(column, distinct); base[c] = dict[c][0];
+            } else if (deltaWidth < fixedWidth) { mode[c] = DELTA; width[c] = deltaWidth; base[c] = first; }
+            else { mode[c] = FIXED; width[c] = fixedWidth; base[c] = min; }
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(b.length / 2 + 64);
+        DataOutputStream dout = new DataOutputStream(bos);
+        try {
+            dout.writeByte(sep);
+            dout.writeByte(cols);
+            for (int c = 0; c < cols; c++) {
+                dout.writeByte(scale[c]);
+                dout.writeByte(mode[c]);
+                dout.writeByte(width[c]);
+                dout.writeLong(base[c]);
+                if (mode[c] != DICT) continue;
+                dout.writeInt(dict[c].length);
+                for (int i = 1; i < dict[c].length; i++) writeVarLong(dout, dict[c][i] - dict[c][i - 1]);
+            }
+            long[] prev = base.clone();
+            for (int r = 0, start = 0; r < lines; start = lineEnd[r++] + 1) {
+                if (slot[r] >= 0) {
+                    dout.writeByte(NUMERIC);
+                    for (int c = 0; c < cols; c++) {
+                        long v = vals[slot[r] * cols + c], stored;
+                        if (mode[c] == FIXED) stored = v - base[c];
+                        else if (mode[c] == DICT) stored = Arrays.binarySearch(dict[c], v);
+                        else { long d = v - prev[c]; stored = (d << 1) ^ (d >> 63); prev[c] = v; }
+                        for (int k = width[c] - 1; k >= 0; k--) dout.writeByte((int) (stored >>> (8 * k)));
+                    }
+                } else if (lineEnd[r] < b.length) {
+                    dout.writeByte(TEXT);
+                    dout.write(b, start, lineEnd[r] - start + 1);
+                } else {
+                    dout.writeByte(TAIL);
+                    dout.write(b, start, b.length - start);
+                }
+            }
+        } catch (IOException e) { throw new IllegalStateException(e); } // ByteArrayOutputStream no falla
+        return bos.toByteArray();
+    }
+
+    /** Reconstruye el texto de un cuerpo de bloque escrito por {@link #encodeBlock}. */
+    static void decodeBlock(byte[] body, int off, int len, OutputStream out) throws IOException {
+        int end = off + len, p = off;
+        try {
+            byte sep = body[p++];
+            int cols = body[p++] & 0xFF;
+            int[] scale = new int[cols], mode = new int[cols], width = new int[cols];
+            long[] base = new long[cols];
+            long[][] dict = new long[cols][];
+            for (int c = 0; c < cols; c++) {
+                scale[c] = body[p++];
+                mode[c] = body[p++];
+                width[c] = body[p++];
+                if (scale[c] < 0 || scale[c] > MAX_DIGITS || width[c] < 0 || width[c] > 8
+                        || (mode[c] != FIXED && mode[c] != DELTA && mode[c] != DICT))
+                    throw new IOException("Columna " + c + " de CSV numérico inválida");
+                long v = 0;
+                for (int k = 0; k < 8; k++) v = (v << 8) | (body[p++] & 0xFF);
+                base[c] = v;
+                if (mode[c] != DICT) continue;
+                int count = ((body[p] & 0xFF) << 24) | ((body[p + 1] & 0xFF) << 16) | ((body[p + 2] & 0xFF) << 8) | (body[p + 3] & 0xFF);
+                p += 4;
+                if (count < 1 || count - 1 > end - p) throw new IOException("Diccionario de la columna " + c + " inválido");
+                dict[c] = new long[count];
+                dict[c][0] = v;
+                for (int i = 1; i < count; i++) {
+                    long d = 0;
+                    for (int shift = 0; ; shift += 7) {
+                        int x = body[p++];
+                        d |= (long) (x & 0x7F) << shift;
+                        if (x >= 0) break;
+                    }
+                    dict[c][i] = dict[c][i - 1] + d;
+                }
+            }
+            long[] prev = base.clone();
+            byte[] line = new byte[Math.max(1, cols) * (MAX_DIGITS + 3)];
+            while (p < end) {
+                int tag = body[p++];
+                if (tag == NUMERIC) {
+                    int n = 0;
+                    for (int c = 0; c < cols; c++) {
+                        long stored = 0;
+                        for (int k = 0; k < width[c]; k++) stored = (stored << 8) | (body[p++] & 0xFF);
+                        long v;
+                        if (mode[c] == FIXED) v = base[c] + stored;
+                        else if (mode[c] == DICT) {
+                            if (stored >= dict[c].length) throw new IOException("Código fuera del diccionario de la columna " + c);
+                            v = dict[c][(int) stored];
+                        } else { v = prev[c] + ((stored >>> 1) ^ -(stored & 1)); prev[c] = v; }
+                        if (c > 0) line[n++] = sep;
+                        n = format(v, scale[c], line, n);
+                    }
+                    line[n++] = '\n';
+                    out.write(line, 0, n);
+                } else if (tag == TEXT) {
+                    int start = p;
+                    while (body[p] != '\n') p++;
+                    out.write(body, start, ++p - start);
+                } else if (tag == TAIL) {
+                    out.write(body, p, end - p);
+                    p = end;
+                } else {
+                    throw new IOException("Renglón de CSV numérico con marca desconocida: " + tag);
+                }
+            }
+            if (p != end) throw new IOException("Bloque de CSV numérico dañado: excede su largo");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Bloque de CSV numérico dañado", e);
+        }
+    }
+
+    /** Entero >= 0 en grupos de 7 bits, el menos significativo primero. */
+    private static void writeVarLong(DataOutputStream dout, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) { dout.writeByte((int) (v & 0x7F) | 0x80); v >>>= 7; }
+        dout.writeByte((int) v);
+    }
+
+    /** Posición del '\n' de cada renglón; el último, si no termina en '\n', termina en {@code b.length}. */
+    private static int[] lineEnds(byte[] b) {
+        int n = 0;
+        for (byte x : b) if (x == '\n') n++;
+        boolean tail = b.length > 0 && b[b.length - 1] != '\n';
+        int[] ends = new int[n + (tail ? 1 : 0)];
+        int k = 0;
+        for (int i = 0; i < b.length; i++) if (b[i] == '\n') ends[k++] = i;
+        if (tail) ends[k] = b.length;
+        return ends;
+    }
+
+    /**
+     * El separador con más renglones totalmente numéricos (de al menos dos campos) entre los
+     * primeros {@link #SAMPLE_LINES}; 0 si ninguno.
+     */
+    private static byte pickSeparator(byte[] b, int[] lineEnd) {
+        byte best = 0;
+        int bestRows = 0;
+        int[] dec = new int[2];
+        for (byte sep : SEPARATORS) {
+            int rows = 0;
+            for (int r = 0, start = 0; r < Math.min(lineEnd.length, SAMPLE_LINES); start = lineEnd[r++] + 1) {
+                if (numericFields(b, start, lineEnd[r], sep, dec) >= 2) rows++;
+            }
+            if (rows > bestRows) { best = sep; bestRows = rows; }
+        }
+        return best;
+    }
+
+    /** Columnas del primer renglón numérico de la muestra con {@code sep} (0 si pasan de 255). */
+    private static int columns(byte[] b, int[] lineEnd, byte sep) {
+        int[] dec = new int[2];
+        for (int r = 0, start = 0; r < Math.min(lineEnd.length, SAMPLE_LINES); start = lineEnd[r++] + 1) {
+            int f = numericFields(b, start, lineEnd[r], sep, dec);
+            if (f >= 2) return (f <= 255) ? f : 0;
+        }
+        return 0;
+    }
+
+    /** Campos del renglón {@code [from, to)} si todos son números canónicos; -1 si no. */
+    private static int numericFields(byte[] b, int from, int to, byte sep, int[] dec) {
+        int f = 0;
+        for (int i = from, start = from; i <= to; i++) {
+            if (i < to && b[i] != sep) continue;
+            if (parse(b, start, i, dec) == Long.MIN_VALUE) return -1;
+            start = i + 1;
+            f++;
+        }
+        return f;
+    }
+
+    // ======= Streams =======
+    /** Entrega los cuerpos transformados con su largo, bloque por bloque, y al final el {@link #END}. */
+    static final class Encoder extends InputStream {
+        private final PpmContainer.LineBlocks blocks;
+        private byte[] cur = new byte[0];
+        private int pos;
+        private boolean done;
+
+        Encoder(InputStream in) { this.blocks = new PpmContainer.LineBlocks(in, BLOCK_SIZE); }
+
+        private boolean fill() throws IOException {
+            while (pos == cur.length) {
+                if (done) return false;
+                byte[] raw = blocks.next();
+                byte[] body = (raw == null) ? null : encodeBlock(raw);
+                int len = (body == null) ? END : body.length;
+                cur = new byte[4 + ((body == null) ? 0 : len)];
+                cur[0] = (byte) (len >>> 24); cur[1] = (byte) (len >>> 16); cur[2] = (byte) (len >>> 8); cur[3] = (byte) len;
+                if (body != null) System.arraycopy(body, 0, cur, 4, len);
+                else done = true;
+                pos = 0;
+            }
+            return true;
+        }
+
+        @Override public int read() throws IOException {
+            return fill() ? (cur[pos++] & 0xFF) : -1;
+        }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!fill()) return -1;
+            int n = Math.min(len, cur.length - pos);
+            System.arraycopy(cur, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+
+    /** Junta lo que sale del núcleo hasta tener un bloque completo y escribe su texto en {@code out}. */
+    static final class Decoder extends OutputStream {
+        private final OutputStream out;
+        private byte[] buf = new byte[1 << 16];
+        private int n;
+        private boolean finished;
+
+        Decoder(OutputStream out) { this.out = out; }
+
+        boolean finished() { return finished && n == 0; }
+
+        @Override public void write(int b) throws IOException { write(new byte[]{ (byte) b }, 0, 1); }
+
+        @Override public void write(byte[] b, int off, int len) throws IOException {
+            if (finished && len > 0) throw new IOException("CSV numérico dañado: datos después del fin de bloques");
+            if (n + len > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, n + len));
+            System.arraycopy(b, off, buf, n, len);
+            n += len;
+            int p = 0;
+            while (!finished && n - p >= 4) {
+                int size = ((buf[p] & 0xFF) << 24) | ((buf[p + 1] & 0xFF) << 16) | ((buf[p + 2] & 0xFF) << 8) | (buf[p + 3] & 0xFF);
+                if (size == END) { finished = true; p += 4; break; }
+                if (size < 2) throw new IOException("Bloque de CSV numérico con largo inválido: " + size);
+                if (n - p - 4 < size) break;
+                decodeBlock(buf, p + 4, size, out);
+                p += 4 + size;
+            }
+            if (finished && p != n) throw new IOException("CSV numérico dañado: datos después del fin de bloques");
+            System.arraycopy(buf, p, buf, 0, n - p);
+            n -= p;
+        }
+
+        @Override public void flush() throws IOException { out.flush(); }
+    }
+
+    // ======= Reporte: bytes vs CSV numérico en los datasets del repo =======
+    public static void main(String[] args) throws Exception {
+        String[] files = (args.length >= 1) ? args[0].split(",")
+                : new String[]{"src/main/resources/winequality-red.csv", "src/main/resources/winequality-white.csv"};
+        int maxOrder = (args.length >= 2) ? Integer.parseInt(args[1].trim()) : 4;
+        int repeat = (args.length >= 3) ? Integer.parseInt(args[2].trim()) : 5;
+
+        System.out.println("=== CSV numérico vs bytes ===");
+        System.out.printf("%-24s %5s %6s %10s %10s %7s %7s %10s %12s %10s %5s%n", "archivo", "orden", "modo",
+                "entrada", "símbolos", "bits/r", "ratio", "comp MB/s", "descomp MB/s", "comprimido", "ok");
+        for (String file : files) {
+            byte[] input = Files.readAllBytes(Paths.get(file));
+            long rows = 0;
+            for (byte x : input) if (x == '\n') rows++;
+            for (int order = 1; order <= maxOrder; order++) {
+                for (boolean numeric : new boolean[]{false, true}) {
+                    Ppm.Options opt = new Ppm.Options(order).numericCsv(numeric);
+                    long symbols = numeric ? new Encoder(new ByteArrayInputStream(input)).readAllBytes().length : input.length;
+                    byte[] comp = null, back = null;
+                    long bestC = Long.MAX_VALUE, bestD = Long.MAX_VALUE;
+                    for (int it = 0; it < repeat; it++) {
+                        long t0 = System.nanoTime();
+                        comp = Ppm.compressBytes(input, opt);
+                        long t1 = System.nanoTime();
+                        back = Ppm.decompressBytes(comp, opt);
+                        long t2 = System.nanoTime();
+                        bestC = Math.min(bestC, t1 - t0);
+                        bestD = Math.min(bestD, t2 - t1);
+                    }
+                    System.out.printf("%-24s %5d %6s %10d %10d %7.2f %7.3f %10.2f %12.2f %10d %5s%n",
+                            Paths.get(file).getFileName(), order, numeric ? "csv" : "bytes", input.length, symbols,
+                            comp.length * 8.0 / Math.max(rows, 1), comp.length * 1.0 / input.length,
+                            input.length / 1e6 / (bestC / 1e9), input.length / 1e6 / (bestD / 1e9),
+                            comp.length, Arrays.equals(input, back));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,453 @@
+package unam.iimas.ia.ml.ppm;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static unam.iimas.ia.ml.ppm.Ppm.ALPHABET_SIZE;
+import static unam.iimas.ia.ml.ppm.Ppm.ESC;
+import static unam.iimas.ia.ml.ppm.Ppm.MAX_SYMBOL;
+
+/**
+ * La misma tabla de contextos que {@link Ppm.PPMModel} (misma salida) pero sin objetos por
+ * contexto: todo vive fuera del heap, en ByteBuffers directos, y el GC sólo ve un puñado de
+ * buffers sin importar cuántos contextos haya.
+ * <p>
+ * Hay dos regiones. La tabla es direccionamiento abierto con sondeo lineal; cada slot guarda
+ * {hash del contexto, dirección del registro} en 16 bytes y dirección 0 es slot vacío. Los
+ * registros van en una arena de asignación secuencial:
+ * <pre>
+ * recent:long  k:int  sum:int  n:int  cap:int  older:(k-8 bytes, a múltiplo de 4)
+ * ralo  (cap > 0):  syms[cap]:byte  cnt[cap]:int   ordenados por símbolo
+ * denso (cap = -1): cnt[256]:int    fen[256]:int   (ver {@link Ppm.Fenwick})
+ * </pre>
+ * Un registro que crece (más símbolos de los que caben, o más de {@link #DENSE} y pasa a denso)
+ * se copia al final de la arena y el viejo queda como basura; la basura se recupera al duplicar
+ * la tabla si ya es más que lo vivo, y al podar. Todo eso pasa en los mismos puntos en el
+ * codificador y el decodificador, así que {@link #memoryBytes} también es determinista.
+ * <p>
+ * La memoria directa se libera hasta que el GC corre el Cleaner de cada buffer, así que no se
+ * tira: {@link #reset} limpia la tabla y la arena y las sigue usando, las tablas que deja una
+ * reconstrucción se guardan (en ceros) para la próxima vez que se necesite ese tamaño, y la arena
+ * vieja de una compactación queda de repuesto para la siguiente. Con RESTART o en
+ * {@link PpmPool} el modelo vuelve a crecer sobre la misma memoria.
+ */
+final class OffHeapModel implements Ppm.ContextModel {
+    static final int DENSE = 16;
+    private static final int MIN_SLOTS = 1 << 10;
+    private static final int SLOT = 16;
+    private static final int RECENT = 0, K = 8, SUM = 12, N = 16, CAP = 20, OLDER = 24;
+    private static final int DENSE_BODY = 8 * ALPHABET_SIZE;
+
+    private final int order, maxTotal;
+    private Region table, arena;
+    private final Region[] spareTables = new Region[64]; // por bits, en ceros
+    private Region spareArena;                           // en ceros
+    private long slots, top, live;
+    private int bits;
+    private long count;
+    private boolean frozen;
+    private long cur, curBody; // registro seleccionado y dónde empiezan sus frecuencias
+    private int curSum, curCap, curN;
+
+    OffHeapModel(int order, int maxTotal) {
+        this.order = order;
+        this.maxTotal = maxTotal;
+        reset();
+    }
+
+    public int order() { return order; }
+
+    public boolean select(Ppm.Context ctx, int k) {
+        if (k > ctx.length()) return false;
+        long slot = find(ctx, k, false);
+        if (slot < 0) return false;
+        cur = table.getLong(slot + 8);
+        curBody = body(cur);
+        curSum = arena.getInt(cur + SUM);
+        curN = arena.getInt(cur + N);
+        curCap = arena.getInt(cur + CAP);
+        return true;
+    }
+
+    public int total() { return curSum + 1; } // + ESC
+
+    public boolean contains(int sym) { return sym < ALPHABET_SIZE && freq(curBody, curN, curCap, sym) > 0; }
+
+    public int cumFreq(int sym) {
+        if (sym >= ESC) return (sym == ESC) ? curSum : curSum + 1;
+        if (curCap < 0) return fenPrefix(curBody + 4 * ALPHABET_SIZE, sym);
+        int run = 0;
+        for (int i = 0; i < curN && (arena.getByte(curBody + i) & 0xFF) < sym; i++) run += arena.getInt(curBody + curCap + 4L * i);
+        return run;
+    }
+
+    public int symbolFromCum(int x) {
+        if (x >= curSum) return (x == curSum) ? ESC : MAX_SYMBOL;
+        if (curCap < 0) return fenFind(curBody + 4 * ALPHABET_SIZE, x);
+        int run = 0;
+        for (int i = 0; i < curN; i++) {
+            run += arena.getInt(curBody + curCap + 4L * i);
+            if (x < run) return arena.getByte(curBody + i) & 0xFF;
+        }
+        return ESC;
+    }
+
+    public void update(Ppm.Context ctx, int sym) {
+        for (int k = 0; k <= ctx.length(); k++) {
+            long slot = find(ctx, k, !frozen);
+            if (slot < 0) continue;
+            long a = table.getLong(slot + 8);
+            if (frozen && freq(body(a), arena.getInt(a + N), arena.getInt(a + CAP), sym) == 0) continue;
+            add(slot, a, sym);
+            a = table.getLong(slot + 8); // add() pudo mudar el registro
+            if (arena.getInt(a + SUM) >= maxTotal) rescale(a);
+        }
+    }
+
+    // ---- Presupuesto de memoria ----
+    public long memoryBytes() { return slots * SLOT + top; }
+    public long nodes() { return count; }
+    public boolean isEmpty() { return count == 0; }
+
+    public void reset() {
+        if (table == null) {
+            arena = new Region(1 << 16);
+        } else {
+            parkTable(table, bits);
+            arena.clear(top);
+        }
+        bits = Integer.numberOfTrailingZeros(MIN_SLOTS);
+        slots = MIN_SLOTS;
+        table = takeTable(bits);
+        top = 8; // dirección 0 = slot vacío
+        live = count = 0;
+    }
+
+    /** Memoria directa que el modelo retiene, incluyendo repuestos; {@link #memoryBytes} cuenta sólo lo usado. */
+    long retainedBytes() {
+        long n = table.capacity() + arena.capacity() + ((spareArena == null) ? 0 : spareArena.capacity());
+        for (Region t : spareTables) if (t != null) n += t.capacity();
+        return n;
+    }
+
+    public void prune() {
+        Region oldTable = table, oldArena = arena;
+        long oldSlots = slots, kept = 0;
+        for (long i = 0; i < oldSlots; i++) {
+            long a = oldTable.getLong(i * SLOT + 8);
+            if (a != 0 && halve(a) > 0) kept++;
+        }
+        int b = Integer.numberOfTrailingZeros(MIN_SLOTS);
+        while (kept * 2 > (1L << b)) b++;
+        rebuild(oldTable, oldSlots, oldArena, b, true, true);
+    }
+
+    public void freeze() { frozen = true; }
+    public boolean frozen() { return frozen; }
+
+    // ======= Tabla =======
+    private long index(long h) { return (h * Ppm.Context.MUL) >>> (64 - bits); }
+
+    /** Tabla en ceros de 2^b slots: la guardada de ese tamaño si hay, o una nueva. */
+    private Region takeTable(int b) {
+        Region t = spareTables[b];
+        spareTables[b] = null;
+        return (t != null) ? t : new Region((1L << b) * SLOT);
+    }
+
+    private void parkTable(Region t, int b) {
+        t.clear((1L << b) * SLOT);
+        spareTables[b] = t;
+    }
+
+    /** Slot (dirección en la tabla) del contexto de orden k, o -1 si no existe y no se pidió crearlo. */
+    private long find(Ppm.Context ctx, int k, boolean create) {
+        long h = ctx.hash(k) ^ (k * Ppm.Context.MUL);
+        long recent = ctx.recent(k);
+        long m = slots - 1;
+        long i = index(h);
+        for (long a; (a = table.getLong(i * SLOT + 8)) != 0; i = (i + 1) & m)
+            if (table.getLong(i * SLOT) == h && matches(a, ctx, k, recent)) return i * SLOT;
+        if (!create) return -1;
+        int older = (k > 8) ? k - 8 : 0;
+        long a = allocate(sparseSize(older, 4));
+        arena.putLong(a + RECENT, recent);
+        arena.putInt(a + K, k);
+        arena.putInt(a + CAP, 4);
+        for (int j = 8; j < k; j++) arena.putByte(a + OLDER + j - 8, (byte) ctx.byteAt(j));
+        table.putLong(i * SLOT, h);
+        table.putLong(i * SLOT + 8, a);
+        if (++count * 2 > slots) {
+            rebuild(table, slots, arena, bits + 1, top - live > live, false);
+            return find(ctx, k, false);
+        }
+        return i * SLOT;
+    }
+
+    private boolean matches(long a, Ppm.Context ctx, int k, long recent) {
+        if (arena.getInt(a + K) != k || arena.getLong(a + RECENT) != recent) return false;
+        for (int j = 8; j < k; j++) if ((arena.getByte(a + OLDER + j - 8) & 0xFF) != ctx.byteAt(j)) return false;
+        return true;
+    }
+
+    /**
+     * Reparte los registros de {@code oldTable} en una tabla de 2^newBits slots; con {@code compact}
+     * además los copia a una arena nueva sin la basura, y con {@code dropEmpty} (tras podar) se
+     * quedan fuera los que llegaron a suma 0.
+     */
+    private void rebuild(Region oldTable, long oldSlots, Region oldArena, int newBits, boolean compact, boolean dropEmpty) {
+        int oldBits = bits;
+        long oldTop = top;
+        bits = newBits;
+        slots = 1L << newBits;
+        table = takeTable(newBits);
+        if (compact) {
+            arena = (spareArena != null) ? spareArena : new Region(Math.max(1 << 16, live));
+            spareArena = null;
+            top = 8; live = 0;
+        }
+        count = 0;
+        long m = slots - 1;
+        for (long s = 0; s < oldSlots; s++) {
+            long a = oldTable.getLong(s * SLOT + 8);
+            if (a == 0) continue;
+            if (dropEmpty && oldArena.getInt(a + SUM) == 0) continue;
+            if (compact) {
+                int size = recordSize(oldArena, a);
+                long na = allocate(size);
+                for (int j = 0; j < size; j += 4) arena.putInt(na + j, oldArena.getInt(a + j));
+                a = na;
+            }
+            long h = oldTable.getLong(s * SLOT);
+            long i = index(h);
+            while (table.getLong(i * SLOT + 8) != 0) i = (i + 1) & m;
+            table.putLong(i * SLOT, h);
+            table.putLong(i * SLOT + 8, a);
+            count++;
+        }
+        parkTable(oldTable, oldBits);
+        if (compact) {
+            oldArena.clear(oldTop);
+            spareArena = oldArena;
+        }
+    }
+
+    // ======= Registros =======
+    private static int olderBytes(int older) { return (older + 3) & ~3; }
+    private static int sparseSize(int older, int cap) { return (OLDER + olderBytes(older) + 5 * cap + 7) & ~7; }
+    private static int denseSize(int older) { return (OLDER + olderBytes(older) + DENSE_BODY + 7) & ~7; }
+
+    private static int recordSize(Region r, long a) {
+        int k = r.getInt(a + K), cap = r.getInt(a + CAP), older = (k > 8) ? k - 8 : 0;
+        return (cap < 0) ? denseSize(older) : sparseSize(older, cap);
+    }
+
+    private long body(long a) {
+        int k = arena.getInt(a + K);
+        return a + OLDER + ((k > 8) ? olderBytes(k - 8) : 0);
+    }
+
+    private long allocate(int size) {
+        if ((top & Region.MASK) + size > Region.CHUNK) top = (top | Region.MASK) + 1; // no cruzar bloques
+        arena.ensure(top + size);
+        long a = top;
+        top += size;
+        live += size;
+        return a;
+    }
+
+    private int freq(long b, int n, int cap, int s) {
+        if (cap < 0) return arena.getInt(b + 4L * s);
+        for (int i = 0; i < n; i++) {
+            int t = arena.getByte(b + i) & 0xFF;
+            if (t == s) return arena.getInt(b + cap + 4L * i);
+            if (t > s) break;
+        }
+        return 0;
+    }
+
+    /** Cuenta s en el registro {@code a} del slot {@code slot}; si el registro se muda, el slot apunta al nuevo. */
+    private void add(long slot, long a, int s) {
+        arena.putInt(a + SUM, arena.getInt(a + SUM) + 1);
+        long b = body(a);
+        int cap = arena.getInt(a + CAP);
+        if (cap < 0) { arena.putInt(b + 4L * s, arena.getInt(b + 4L * s) + 1); fenAdd(b + 4 * ALPHABET_SIZE, s, 1); return; }
+        int n = arena.getInt(a + N);
+        int i = 0;
+        while (i < n && (arena.getByte(b + i) & 0xFF) < s) i++;
+        if (i < n && (arena.getByte(b + i) & 0xFF) == s) { arena.putInt(b + cap + 4L * i, arena.getInt(b + cap + 4L * i) + 1); return; }
+        if (n == DENSE) { densify(slot, a, b, n, s); return; }
+        if (n == cap) {
+            // Mudar a un registro del doble de capacidad
+            int k = arena.getInt(a + K), older = (k > 8) ? k - 8 : 0;
+            long na = allocate(sparseSize(older, cap << 1));
+            long nb = na + (b - a);
+            for (int j = 0; j < b - a; j += 4) arena.putInt(na + j, arena.getInt(a + j));
+            arena.putInt(na + CAP, cap << 1);
+            for (int j = 0; j < n; j++) {
+                arena.putByte(nb + j, arena.getByte(b + j));
+                arena.putInt(nb + (cap << 1) + 4L * j, arena.getInt(b + cap + 4L * j));
+            }
+            live -= sparseSize(older, cap);
+            table.putLong(slot + 8, na);
+            a = na; b = nb; cap <<= 1;
+        }
+        for (int j = n; j > i; j--) {
+            arena.putByte(b + j, arena.getByte(b + j - 1));
+            arena.putInt(b + cap + 4L * j, arena.getInt(b + cap + 4L * (j - 1)));
+        }
+        arena.putByte(b + i, (byte) s);
+        arena.putInt(b + cap + 4L * i, 1);
+        arena.putInt(a + N, n + 1);
+    }
+
+    private void densify(long slot, long a, long b, int n, int s) {
+        int k = arena.getInt(a + K), older = (k > 8) ? k - 8 : 0, cap = arena.getInt(a + CAP);
+        long na = allocate(denseSize(older));
+        long nb = na + (b - a);
+        for (int j = 0; j < b - a; j += 4) arena.putInt(na + j, arena.getInt(a + j));
+        arena.putInt(na + CAP, -1);
+        arena.putInt(na + N, n + 1);
+        for (int j = 0; j < n; j++) {
+            int t = arena.getByte(b + j) & 0xFF, c = arena.getInt(b + cap + 4L * j);
+            arena.putInt(nb + 4L * t, c);
+            fenAdd(nb + 4 * ALPHABET_SIZE, t, c);
+        }
+        arena.putInt(nb + 4L * s, 1);
+        fenAdd(nb + 4 * ALPHABET_SIZE, s, 1);
+        live -= sparseSize(older, cap);
+        table.putLong(slot + 8, na);
+    }
+
+    /** Frecuencias a la mitad redondeando hacia arriba: ningún símbolo llega a 0 y el registro no se muda. */
+    private void rescale(long a) {
+        long b = body(a);
+        int sum = 0, cap = arena.getInt(a + CAP);
+        if (cap < 0) {
+            long fen = b + 4 * ALPHABET_SIZE;
+            for (int s = 0; s < ALPHABET_SIZE; s++) arena.putInt(fen + 4L * s, 0);
+            for (int s = 0; s < ALPHABET_SIZE; s++) {
+                int c = arena.getInt(b + 4L * s);
+                if (c == 0) continue;
+                c = (c + 1) >> 1;
+                arena.putInt(b + 4L * s, c);
+                sum += c;
+                fenAdd(fen, s, c);
+            }
+        } else {
+            for (int i = 0, n = arena.getInt(a + N); i < n; i++) {
+                int c = (arena.getInt(b + cap + 4L * i) + 1) >> 1;
+                arena.putInt(b + cap + 4L * i, c);
+                sum += c;
+            }
+        }
+        arena.putInt(a + SUM, sum);
+    }
+
+    /** Frecuencias a la mitad, sin los símbolos que quedan en 0; devuelve la nueva suma. */
+    private int halve(long a) {
+        Region r = arena;
+        long b = body(a);
+        int sum = 0, cap = r.getInt(a + CAP);
+        if (cap < 0) {
+            long fen = b + 4 * ALPHABET_SIZE;
+            for (int s = 0; s < ALPHABET_SIZE; s++) r.putInt(fen + 4L * s, 0);
+            for (int s = 0; s < ALPHABET_SIZE; s++) {
+                int c = r.getInt(b + 4L * s) >> 1;
+                r.putInt(b + 4L * s, c);
+                if (c > 0) { sum += c; fenAdd(fen, s, c); }
+            }
+        } else {
+            int n = r.getInt(a + N), m = 0;
+            for (int i = 0; i < n; i++) {
+                int c = r.getInt(b + cap + 4L * i) >> 1;
+                if (c == 0) continue;
+                r.putByte(b + m, r.getByte(b + i));
+                r.putInt(b + cap + 4L * m++, c);
+                sum += c;
+            }
+            r.putInt(a + N, m);
+        }
+        r.putInt(a + SUM, sum);
+        return sum;
+    }
+
+    // ---- Fenwick sobre la arena (mismas cuentas que Ppm.Fenwick) ----
+    private void fenAdd(long t, int s, int d) {
+        for (int j = s + 1; j <= ALPHABET_SIZE; j += j & -j) arena.putInt(t + 4L * (j - 1), arena.getInt(t + 4L * (j - 1)) + d);
+    }
+
+    private int fenPrefix(long t, int s) {
+        int r = 0;
+        for (int j = s; j > 0; j -= j & -j) r += arena.getInt(t + 4L * (j - 1));
+        return r;
+    }
+
+    private int fenFind(long t, int x) {
+        int pos = 0;
+        for (int step = ALPHABET_SIZE; step > 0; step >>= 1) {
+            int nxt = pos + step;
+            if (nxt <= ALPHABET_SIZE) {
+                int v = arena.getInt(t + 4L * (nxt - 1));
+                if (v <= x) { pos = nxt; x -= v; }
+            }
+        }
+        return pos;
+    }
+
+    // ======= Memoria fuera del heap =======
+    /**
+     * Espacio direccionable con long hecho de ByteBuffers directos de a lo más {@link #CHUNK}
+     * bytes. Mientras cabe en uno solo crece duplicando; después agrega bloques completos. Los
+     * buffers nuevos vienen en ceros y {@link #clear} los deja igual para reutilizarlos.
+     */
+    static final class Region {
+        static final int SHIFT = 26, CHUNK = 1 << SHIFT;
+        static final long MASK = CHUNK - 1;
+        private static final byte[] ZEROS = new byte[1 << 16]; // divide a CHUNK: ninguna copia cruza bloques
+        private ByteBuffer[] chunks;
+        private long capacity;
+
+        Region(long bytes) {
+            chunks = new ByteBuffer[0];
+            ensure(Math.max(bytes, 8));
+        }
+
+        void ensure(long end) {
+            if (end <= capacity) return;
+            if (capacity < CHUNK) {
+                long cap = Math.max(Math.max(capacity * 2, 1 << 12), end);
+                ByteBuffer b = direct((int) Math.min(cap, CHUNK));
+                if (chunks.length == 1) b.put(0, chunks[0], 0, (int) capacity);
+                chunks = new ByteBuffer[]{ b };
+                capacity = b.capacity();
+            }
+            while (capacity < end) {
+                ByteBuffer[] c = java.util.Arrays.copyOf(chunks, chunks.length + 1);
+                c[chunks.length] = direct(CHUNK);
+                chunks = c;
+                capacity += CHUNK;
+            }
+        }
+
+        long capacity() { return capacity; }
+
+        /** Pone en ceros [0, end). */
+        void clear(long end) {
+            end = Math.min(end, capacity);
+            for (long a = 0; a < end; ) {
+                int n = (int) Math.min(ZEROS.length, end - a);
+                chunks[(int) (a >>> SHIFT)].put((int) (a & MASK), ZEROS, 0, n);
+                a += n;
+            }
+        }
+
+        private static ByteBuffer direct(int size) { return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder()); }
+
+        byte getByte(long a) { return chunks[(int) (a >>> SHIFT)].get((int) (a & MASK)); }
+        void putByte(long a, byte v) { chunks[(int) (a >>> SHIFT)].put((int) (a & MASK), v); }
+        int getInt(long a) { return chunks[(int) (a >>> SHIFT)].getInt((int) (a & MASK)); }
+        void putInt(long a, int v) { chunks[(int) (a >>> SHIFT)].putInt((int) (a & MASK), v); }
+        long getLong(long a) { return chunks[(int) (a >>> SHIFT)].getLong((int) (a & MASK)); }
+        void putLong(long a, long v) { chunks[(int) (a >>> SHIFT)].putLong((int) (a & MASK), v); }
+    }
+}
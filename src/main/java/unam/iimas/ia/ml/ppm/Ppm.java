@@ -1,5 +1,11 @@
 package unam.iimas.ia.ml.ppm;
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 public class Ppm {
@@ -10,95 +16,398 @@ public class Ppm {
     static final int ESC = 256;  // escape
     static final int EOF = 257;  // fin de archivo
     static final int MAX_SYMBOL = 257; // 0..257
+    static final int IO_CHUNK = 1 << 16; // bloque de lectura/escritura del núcleo
+    /**
+     * Tope de total() de un contexto: al llegar, las frecuencias de ese contexto se dividen entre 2
+     * (redondeando hacia arriba, ningún símbolo desaparece). Sin esto las cuentas crecen sin límite
+     * y en streams de varios GB rebasan la precisión del codificador. El de omisión es el máximo
+     * del aritmético, así que en entradas normales no cambia la salida.
+     */
+    static final int DEFAULT_MAX_TOTAL = 1 << 30;
+    static final int MIN_MAX_TOTAL = 1 << 9; // tras dividir, 256 símbolos + ESC tienen que caber de sobra
+
+    // ======= Opciones =======
+    /**
+     * Implementación de la tabla de contextos; todas producen la misma salida. OFFHEAP es HASH con
+     * los contextos fuera del heap (ver {@link OffHeapModel}), para órdenes altos y entradas enormes.
+     */
+    public enum ModelType { HASH, TRIE, OFFHEAP }
+
+    /** Codificador de entropía: aritmético bit a bit (formato original) o range coder por bytes. */
+    public enum CoderType { ARITH, RANGE }
+
+    /**
+     * Qué hacer cuando el modelo rebasa {@code maxModelBytes}: vaciarlo, podarlo (frecuencias a la
+     * mitad, se descartan símbolos y contextos que quedan en 0) o congelarlo (sigue contando lo que
+     * ya existe pero no crea contextos ni símbolos nuevos).
+     */
+    public enum MemoryPolicy { RESTART, PRUNE, FREEZE }
+
+    public static final class Options {
+        final int order;
+        ModelType model = ModelType.TRIE;
+        CoderType coder = CoderType.ARITH;
+        int blockSize;    // > 0: contenedor por bloques (ver PpmContainer)
+        int parallelism;  // hilos para los bloques; 0 = ForkJoinPool común
+        long maxModelBytes;  // 0 = sin límite
+        MemoryPolicy memoryPolicy = MemoryPolicy.RESTART;
+        int maxTotal = DEFAULT_MAX_TOTAL;
+        ModelReport report;
+        PrimedModel primer;  // modelo de arranque (sólo TRIE)
+        PpmMetrics metrics;  // null = sin instrumentar
+        boolean numericCsv;  // preproceso de CSV numérico (ver NumericCsv)
+        public Options(int order) { this.order = order; }
+        public Options model(ModelType model) { this.model = model; return this; }
+        /**
+         * Sólo los formatos con encabezado guardan el codificador: el contenedor por bloques
+         * ({@link #blockSize}, ver {@link PpmContainer}) y {@link PpmRowStore}. Un stream simple, el
+         * CSV numérico y lo que sale de {@link PpmPool} o {@link PpmServer} no lo guardan (tampoco el
+         * orden ni maxTotal), así que hay que descomprimirlos con el mismo; con otro no
+         * hay cómo detectarlo y sale basura o una IOException.
+         */
+        public Options coder(CoderType coder) { this.coder = coder; return this; }
+        public Options blockSize(int blockSize) { this.blockSize = blockSize; return this; }
+        public Options parallelism(int parallelism) { this.parallelism = parallelism; return this; }
+        public Options maxModelBytes(long maxModelBytes) { this.maxModelBytes = maxModelBytes; return this; }
+        public Options memoryPolicy(MemoryPolicy memoryPolicy) { this.memoryPolicy = memoryPolicy; return this; }
+        /**
+         * Total máximo por contexto antes de dividir sus frecuencias. Uno chico (p. ej. 2^16) además
+         * hace que el modelo olvide lo viejo y se adapte a datos que cambian. El decodificador tiene
+         * que usar el mismo; el contenedor lo guarda en su encabezado.
+         */
+        public Options maxTotal(int maxTotal) { this.maxTotal = maxTotal; return this; }
+        /** Recibe el pico de memoria del modelo y cuántas veces se aplicó la política. */
+        public Options report(ModelReport report) { this.report = report; return this; }
+        /** Arranca cada stream (o cada bloque) desde una copia de este modelo; el orden tiene que coincidir. */
+        public Options primer(PrimedModel primer) { this.primer = primer; return this; }
+        /** Cuenta hits, escapes y bits por orden en {@code metrics}; sin esto el núcleo no lleva contadores. */
+        public Options metrics(PpmMetrics metrics) { this.metrics = metrics; return this; }
+        /**
+         * Pasa la entrada por {@link NumericCsv} antes del modelo: los renglones de números se
+         * codifican como enteros de ancho fijo y al descomprimir vuelven al mismo texto. El
+         * decodificador tiene que usarlo igual; se puede combinar con {@code blockSize}.
+         */
+        public Options numericCsv(boolean numericCsv) { this.numericCsv = numericCsv; return this; }
+    }
+
+    /**
+     * Uso de memoria de los modelos de una compresión o descompresión. Los bytes son la estimación
+     * determinista de cada modelo (lo que ocupan sus nodos), no lo que reporta la JVM. Con el
+     * contenedor por bloques se acumulan los de todos los bloques.
+     */
+    public static final class ModelReport {
+        private long peakModelBytes;
+        private int budgetEvents;
+        synchronized void record(long peak, int events) {
+            peakModelBytes = Math.max(peakModelBytes, peak);
+            budgetEvents += events;
+        }
+        public synchronized long peakModelBytes() { return peakModelBytes; }
+        public synchronized int budgetEvents() { return budgetEvents; }
+    }
 
     // ======= API en memoria =======
     public static byte[] compressBytes(byte[] input, int order) {
+        return compressBytes(input, new Options(order));
+    }
+
+    public static byte[] decompressBytes(byte[] input, int order) {
+        return decompressBytes(input, new Options(order));
+    }
+
+    public static byte[] compressBytes(byte[] input, Options opt) {
         try {
             ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            compressStream(new ByteArrayInputStream(input), bos, order);
+            compressStream(new ByteArrayInputStream(input), bos, opt);
             return bos.toByteArray();
         } catch (IOException e) { throw new RuntimeException(e); }
     }
 
-    public static byte[] decompressBytes(byte[] input, int order) {
+    public static byte[] decompressBytes(byte[] input, Options opt) {
         try {
             ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            decompressStream(new ByteArrayInputStream(input), bos, order);
+            decompressStream(new ByteArrayInputStream(input), bos, opt);
             return bos.toByteArray();
         } catch (IOException e) { throw new RuntimeException(e); }
     }
 
     // ======= API de archivos =======
     public static long compressFile(String inFile, String outFile, int order) throws IOException {
-        try (InputStream in = new BufferedInputStream(new FileInputStream(inFile));
-             OutputStream out = new BufferedOutputStream(new FileOutputStream(outFile))) {
-            compressStream(in, out, order);
-        }
-        return new File(outFile).length();
+        return compressFile(inFile, outFile, new Options(order));
     }
 
     public static long decompressFile(String inFile, String outFile, int order) throws IOException {
-        try (InputStream in = new BufferedInputStream(new FileInputStream(inFile));
-             OutputStream out = new BufferedOutputStream(new FileOutputStream(outFile))) {
-            decompressStream(in, out, order);
+        return decompressFile(inFile, outFile, new Options(order));
+    }
+
+    /** La entrada se mapea a memoria y la salida va a un FileChannel a través de un buffer directo. */
+    public static long compressFile(String inFile, String outFile, Options opt) throws IOException {
+        try (FileChannel in = FileChannel.open(Paths.get(inFile), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(Paths.get(outFile), StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            compress(in, out, opt);
         }
-        return new File(outFile).length();
+        return Files.size(Paths.get(outFile));
+    }
+
+    public static long decompressFile(String inFile, String outFile, Options opt) throws IOException {
+        try (FileChannel in = FileChannel.open(Paths.get(inFile), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(Paths.get(outFile), StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            decompress(in, out, opt);
+        }
+        return Files.size(Paths.get(outFile));
+    }
+
+    // ======= API de canales (NIO) =======
+    /** Comprime de un canal a otro sin cerrarlos. Un FileChannel de entrada se mapea a memoria desde su posición. */
+    public static void compress(ReadableByteChannel in, WritableByteChannel out, int order) throws IOException {
+        compress(in, out, new Options(order));
+    }
+
+    public static void decompress(ReadableByteChannel in, WritableByteChannel out, int order) throws IOException {
+        decompress(in, out, new Options(order));
+    }
+
+    public static void compress(ReadableByteChannel in, WritableByteChannel out, Options opt) throws IOException {
+        compressStream(PpmChannels.input(in), new PpmChannels.ChannelOutput(out), opt);
+    }
+
+    public static void decompress(ReadableByteChannel in, WritableByteChannel out, Options opt) throws IOException {
+        decompressStream(PpmChannels.input(in), new PpmChannels.ChannelOutput(out), opt);
     }
 
     // ======= Compresión por streams =======
     public static void compressStream(InputStream in, OutputStream out, int order) throws IOException {
-        BitOutput bout = new BitOutput(out);
-        ArithmeticEncoder enc = new ArithmeticEncoder(bout);
-        PPMModel model = new PPMModel(order);
-
-        Deque<Integer> ctx = new ArrayDeque<>();
-        int b;
-        while ((b = in.read()) != -1) {
-            encodeSymbol(enc, model, ctx, b);
-            model.update(ctx, b);
-            pushContext(ctx, b, order);
-        }
-        encodeSymbol(enc, model, ctx, EOF);
-        enc.finish();
-        bout.close();
+        compressStream(in, out, new Options(order));
     }
 
     public static void decompressStream(InputStream in, OutputStream out, int order) throws IOException {
-        BitInput bin = new BitInput(in);
-        ArithmeticDecoder dec = new ArithmeticDecoder(bin);
-        PPMModel model = new PPMModel(order);
+        decompressStream(in, out, new Options(order));
+    }
+
+    /**
+     * Con cualquier opción (simple, por bloques o CSV numérico) termina con flush de {@code out} y
+     * no cierra ningún stream, igual que {@link #decompressStream}: los cierra quien los abrió.
+     */
+    public static void compressStream(InputStream in, OutputStream out, Options opt) throws IOException {
+        if (opt.numericCsv) { NumericCsv.compress(in, out, opt); return; }
+        if (opt.blockSize > 0) { PpmContainer.compress(in, out, opt); return; }
+        SymbolEncoder enc = newEncoder(opt, out);
+        encodeAll(in, enc, opt);
+        enc.finish();
+        out.flush();
+    }
+
+    /** Pasa toda la entrada y el EOF por el modelo entregando cada intervalo a {@code enc}. */
+    private static void encodeAll(InputStream in, SymbolEncoder enc, Options opt) throws IOException {
+        ContextModel model = newModel(opt);
+        Context ctx = new Context(opt.order);
+        MemoryBudget budget = new MemoryBudget(opt);
+        PpmMetrics.Recorder rec = (opt.metrics == null) ? null : new PpmMetrics.Recorder(opt.metrics, opt.order);
+
+        // Se lee por bloques: ninguna llamada virtual de E/S por byte
+        byte[] buf = new byte[IO_CHUNK];
+        for (int n; (n = in.read(buf, 0, buf.length)) != -1; ) {
+            for (int i = 0; i < n; i++) {
+                int b = buf[i] & 0xFF;
+                if (rec == null) encodeSymbol(enc, model, ctx, b);
+                else { encodeSymbol(enc, model, ctx, b, rec); rec.symbol(model); }
+                model.update(ctx, b);
+                ctx.push(b);
+                budget.check(model);
+            }
+        }
+        if (rec == null) encodeSymbol(enc, model, ctx, EOF);
+        else { encodeSymbol(enc, model, ctx, EOF, rec); rec.end(model); }
+        budget.report();
+    }
+
+    public static void decompressStream(InputStream in, OutputStream out, Options opt) throws IOException {
+        if (opt.numericCsv) { NumericCsv.decompress(in, out, opt); return; }
+        if (opt.blockSize > 0) { PpmContainer.decompress(in, out, opt); return; }
+        SymbolDecoder dec = newDecoder(opt, in);
+        ContextModel model = newModel(opt);
+        Context ctx = new Context(opt.order);
+        MemoryBudget budget = new MemoryBudget(opt);
+        PpmMetrics.Recorder rec = (opt.metrics == null) ? null : new PpmMetrics.Recorder(opt.metrics, opt.order);
 
-        Deque<Integer> ctx = new ArrayDeque<>();
+        byte[] buf = new byte[IO_CHUNK];
+        int n = 0;
         while (true) {
-            int sym = decodeSymbol(dec, model, ctx);
+            int sym = (rec == null) ? decodeSymbol(dec, model, ctx) : decodeSymbol(dec, model, ctx, rec);
             if (sym == EOF) break;
-            out.write(sym);
+            if (rec != null) rec.symbol(model);
+            buf[n++] = (byte) sym;
+            if (n == buf.length) { out.write(buf, 0, n); n = 0; }
             model.update(ctx, sym);
-            pushContext(ctx, sym, order);
+            ctx.push(sym);
+            budget.check(model);
         }
+        out.write(buf, 0, n);
         out.flush();
+        if (rec != null) rec.end(model);
+        budget.report();
+    }
+
+    // ======= Estimación de largo =======
+    public static double estimateCompressedBits(InputStream in, int order) throws IOException {
+        return estimateCompressedBits(in, new Options(order));
+    }
+
+    /**
+     * Bits que ocuparía la entrada comprimida: suma de -log2(p) de cada evento codificado
+     * (símbolos, escapes y el EOF) sin pasar por el codificador ni escribir nada. El resultado
+     * real difiere en unos pocos bytes de terminación. Ignora {@code coder} y {@code blockSize}:
+     * siempre estima un solo stream. Con {@code numericCsv} estima la entrada ya transformada.
+     */
+    public static double estimateCompressedBits(InputStream in, Options opt) throws IOException {
+        if (opt.numericCsv) in = new NumericCsv.Encoder(in);
+        CostEncoder cost = new CostEncoder();
+        encodeAll(in, cost, opt);
+        return cost.bits();
+    }
+
+    public static double[] estimateCompressedBitsByOrder(InputStream in, int maxOrder) throws IOException {
+        return estimateCompressedBitsByOrder(in, new Options(maxOrder));
+    }
+
+    /**
+     * Lo mismo que {@link #estimateCompressedBits} para cada orden 0..{@code opt.order} en una sola
+     * pasada: {@code bits[k]} es exacto para el modelo de orden k. Sin exclusión, las cuentas de un
+     * contexto de largo j no dependen del orden máximo, así que el modelo de orden N ya tiene las
+     * de todos los modelos menores. Por símbolo, q[k] = probabilidad que le da el modelo de orden k:
+     * <pre>
+     * contexto k no existe:   q[k] = q[k-1]
+     * símbolo visto en k:     q[k] = f/total
+     * no visto en k:          q[k] = esc/total * q[k-1]     (q[-1] = 1/257)
+     * </pre>
+     * No admite presupuesto de memoria: reiniciar o podar haría que los órdenes ya no compartan cuentas.
+     */
+    public static double[] estimateCompressedBitsByOrder(InputStream in, Options opt) throws IOException {
+        if (opt.maxModelBytes > 0) throw new IllegalArgumentException("El barrido de órdenes no admite maxModelBytes");
+        if (opt.numericCsv) in = new NumericCsv.Encoder(in);
+        int n = opt.order;
+        ContextModel model = newModel(opt);
+        Context ctx = new Context(n);
+        CostEncoder[] cost = new CostEncoder[n + 1];
+        for (int k = 0; k <= n; k++) cost[k] = new CostEncoder();
+
+        byte[] buf = new byte[IO_CHUNK];
+        for (int r; (r = in.read(buf, 0, buf.length)) != -1; ) {
+            for (int i = 0; i < r; i++) {
+                int b = buf[i] & 0xFF;
+                sweepSymbol(cost, model, ctx, b);
+                model.update(ctx, b);
+                ctx.push(b);
+            }
+        }
+        sweepSymbol(cost, model, ctx, EOF);
+
+        double[] bits = new double[n + 1];
+        for (int k = 0; k <= n; k++) bits[k] = cost[k].bits();
+        return bits;
+    }
+
+    private static void sweepSymbol(CostEncoder[] cost, ContextModel model, Context ctx, int sym) {
+        double q = 1.0 / (ALPHABET_SIZE + 1); // orden -1
+        for (int k = 0; k < cost.length; k++) {
+            if (model.select(ctx, k)) {
+                double total = model.total();
+                if (model.contains(sym)) q = (model.cumFreq(sym + 1) - model.cumFreq(sym)) / total;
+                else q *= (model.cumFreq(ESC + 1) - model.cumFreq(ESC)) / total;
+            }
+            cost[k].add(q);
+        }
+    }
+
+    /**
+     * Acumula el producto de las probabilidades en vez de sumar logaritmos: una división por
+     * evento, y cuando el producto se achica se pasa su exponente binario a un entero aparte.
+     */
+    static final class CostEncoder implements SymbolEncoder {
+        private double p = 1.0;
+        private long exp;
+        public void encode(int cumLow, int cumHigh, int total) { add((double) (cumHigh - cumLow) / total); }
+        public void finish() {}
+        void reset() { p = 1.0; exp = 0; }
+        void add(double prob) {
+            p *= prob;
+            if (p < 0x1p-512) { int e = Math.getExponent(p); exp += e; p = Math.scalb(p, -e); }
+        }
+        double bits() { return -(exp + Math.log(p) / Math.log(2)); }
+    }
+
+    static ContextModel newModel(Options opt) {
+        int limit = (opt.coder == CoderType.RANGE) ? RangeEncoder.MAX_TOTAL : ArithmeticEncoder.MAX_TOTAL;
+        if (opt.maxTotal < MIN_MAX_TOTAL || opt.maxTotal > limit)
+            throw new IllegalArgumentException("maxTotal fuera de [" + MIN_MAX_TOTAL + ", " + limit + "] para " + opt.coder + ": " + opt.maxTotal);
+        if (opt.primer != null) {
+            if (opt.model != ModelType.TRIE) throw new IllegalArgumentException("Un modelo de arranque requiere TRIE");
+            if (opt.primer.order != opt.order)
+                throw new IllegalArgumentException("El modelo de arranque es de orden " + opt.primer.order + ", no " + opt.order);
+            return opt.primer.newModel(opt.maxTotal);
+        }
+        switch (opt.model) {
+            case HASH: return new PPMModel(opt.order, opt.maxTotal);
+            case OFFHEAP: return new OffHeapModel(opt.order, opt.maxTotal);
+            case TRIE: return new TrieModel(opt.order, opt.maxTotal);
+            default: throw new IllegalArgumentException("Modelo desconocido: " + opt.model);
+        }
+    }
+
+    /**
+     * Vigila la memoria del modelo después de cada símbolo. Sólo depende del modelo y de los
+     * símbolos ya procesados, así que el codificador y el decodificador aplican la política en
+     * el mismo punto del stream.
+     */
+    static final class MemoryBudget {
+        private final long max;
+        private final MemoryPolicy policy;
+        private final ModelReport report;
+        private long peak;
+        private int events;
+
+        MemoryBudget(Options opt) { max = opt.maxModelBytes; policy = opt.memoryPolicy; report = opt.report; }
+
+        void check(ContextModel model) {
+            long used = model.memoryBytes();
+            if (used > peak) peak = used;
+            if (max <= 0 || used <= max || model.frozen() || model.isEmpty()) return;
+            events++;
+            switch (policy) {
+                case RESTART: model.reset(); break;
+                case PRUNE:
+                    // Podar hasta 3/4 del límite para no volver a podar en el siguiente símbolo
+                    do model.prune(); while (model.memoryBytes() > max - max / 4 && !model.isEmpty());
+                    break;
+                case FREEZE: model.freeze(); break;
+            }
+        }
+
+        void report() { if (report != null) report.record(peak, events); }
+    }
+
+    static SymbolEncoder newEncoder(Options opt, OutputStream out) {
+        switch (opt.coder) {
+            case ARITH: return new ArithmeticEncoder(new BitOutput(out));
+            case RANGE: return new RangeEncoder(out);
+            default: throw new IllegalArgumentException("Codificador desconocido: " + opt.coder);
+        }
+    }
+
+    static SymbolDecoder newDecoder(Options opt, InputStream in) throws IOException {
+        switch (opt.coder) {
+            case ARITH: return new ArithmeticDecoder(new BitInput(in));
+            case RANGE: return new RangeDecoder(in);
+            default: throw new IllegalArgumentException("Codificador desconocido: " + opt.coder);
+        }
     }
 
     // ======= Utilidad: comparar archivos =======
     public static boolean filesEqual(String pathA, String pathB) {
-        File a = new File(pathA);
-        File b = new File(pathB);
-        if (a.length() != b.length()) return false;
-
-        try (InputStream inA = new BufferedInputStream(new FileInputStream(a));
-             InputStream inB = new BufferedInputStream(new FileInputStream(b))) {
-            byte[] bufA = new byte[1 << 16];
-            byte[] bufB = new byte[1 << 16];
-            while (true) {
-                int rA = inA.read(bufA);
-                int rB = inB.read(bufB);
-                if (rA != rB) return false;
-                if (rA == -1) break; // fin
-                for (int i = 0; i < rA; i++) {
-                    if (bufA[i] != bufB[i]) return false;
-                }
-            }
-            return true;
+        try {
+            return Files.mismatch(Paths.get(pathA), Paths.get(pathB)) == -1L;
         } catch (IOException e) {
             throw new RuntimeException("Error comparando archivos: " + e.getMessage(), e);
         }
@@ -137,15 +446,15 @@ public class Ppm {
     }
 
     // ======= Núcleo PPM =======
-    private static void encodeSymbol(ArithmeticEncoder enc, PPMModel model, Deque<Integer> ctx, int sym) throws IOException {
-        for (int k = model.order; k >= 0; k--) {
-            PPMModel.Stats stats = model.getStats(contextSuffix(ctx, k));
-            if (stats == null) continue;
-            if (stats.contains(sym)) {
-                enc.encode(stats.cumFreq(sym), stats.cumFreq(sym + 1), stats.total);
+    static void encodeSymbol(SymbolEncoder enc, ContextModel model, Context ctx, int sym) throws IOException {
+        for (int k = model.order(); k >= 0; k--) {
+            if (!model.select(ctx, k)) continue;
+            int total = model.total();
+            if (model.contains(sym)) {
+                enc.encode(model.cumFreq(sym), model.cumFreq(sym + 1), total);
                 return;
             } else {
-                enc.encode(stats.cumFreq(ESC), stats.cumFreq(ESC + 1), stats.total);
+                enc.encode(model.cumFreq(ESC), model.cumFreq(ESC + 1), total);
             }
         }
         int total = ALPHABET_SIZE + 1; // 0..255 + EOF
@@ -153,17 +462,39 @@ public class Ppm {
         enc.encode(idx, idx + 1, total);
     }
 
-    private static int decodeSymbol(ArithmeticDecoder dec, PPMModel model, Deque<Integer> ctx) throws IOException {
-        for (int k = model.order; k >= 0; k--) {
-            PPMModel.Stats stats = model.getStats(contextSuffix(ctx, k));
-            if (stats == null) continue;
-            int x = dec.getTarget(stats.total);
-            int sym = stats.symbolFromCum(x);
+    /** Igual que {@link #encodeSymbol(SymbolEncoder, ContextModel, Context, int)} contando cada evento en {@code rec}. */
+    static void encodeSymbol(SymbolEncoder enc, ContextModel model, Context ctx, int sym, PpmMetrics.Recorder rec) throws IOException {
+        for (int k = model.order(); k >= 0; k--) {
+            if (!model.select(ctx, k)) continue;
+            int total = model.total();
+            if (model.contains(sym)) {
+                int lo = model.cumFreq(sym), hi = model.cumFreq(sym + 1);
+                enc.encode(lo, hi, total);
+                rec.hit(k, hi - lo, total);
+                return;
+            } else {
+                int lo = model.cumFreq(ESC), hi = model.cumFreq(ESC + 1);
+                enc.encode(lo, hi, total);
+                rec.escape(k, hi - lo, total);
+            }
+        }
+        int total = ALPHABET_SIZE + 1;
+        int idx = (sym == EOF) ? ALPHABET_SIZE : sym;
+        enc.encode(idx, idx + 1, total);
+        rec.hit(-1, 1, total);
+    }
+
+    static int decodeSymbol(SymbolDecoder dec, ContextModel model, Context ctx) throws IOException {
+        for (int k = model.order(); k >= 0; k--) {
+            if (!model.select(ctx, k)) continue;
+            int total = model.total();
+            int x = dec.getTarget(total);
+            int sym = model.symbolFromCum(x);
             if (sym == ESC) {
-                dec.decode(stats.cumFreq(ESC), stats.cumFreq(ESC + 1), stats.total);
+                dec.decode(model.cumFreq(ESC), model.cumFreq(ESC + 1), total);
                 continue;
             } else {
-                dec.decode(stats.cumFreq(sym), stats.cumFreq(sym + 1), stats.total);
+                dec.decode(model.cumFreq(sym), model.cumFreq(sym + 1), total);
                 return sym;
             }
         }
@@ -174,80 +505,559 @@ public class Ppm {
         return sym;
     }
 
-    private static void pushContext(Deque<Integer> ctx, int sym, int order) {
-        ctx.addLast(sym);
-        while (ctx.size() > order) ctx.removeFirst();
+    static int decodeSymbol(SymbolDecoder dec, ContextModel model, Context ctx, PpmMetrics.Recorder rec) throws IOException {
+        for (int k = model.order(); k >= 0; k--) {
+            if (!model.select(ctx, k)) continue;
+            int total = model.total();
+            int sym = model.symbolFromCum(dec.getTarget(total));
+            int lo = model.cumFreq(sym), hi = model.cumFreq(sym + 1);
+            dec.decode(lo, hi, total);
+            if (sym == ESC) { rec.escape(k, hi - lo, total); continue; }
+            rec.hit(k, hi - lo, total);
+            return sym;
+        }
+        int total = ALPHABET_SIZE + 1;
+        int x = dec.getTarget(total);
+        dec.decode(x, x + 1, total);
+        rec.hit(-1, 1, total);
+        return (x == ALPHABET_SIZE) ? EOF : x;
     }
 
-    private static List<Integer> contextSuffix(Deque<Integer> ctx, int k) {
-        if (k == 0) return Collections.emptyList();
-        if (ctx.size() < k) return null;
-        ArrayList<Integer> list = new ArrayList<>(k);
-        int skip = ctx.size() - k;
-        int i = 0;
-        for (int v : ctx) {
-            if (i++ < skip) continue;
-            list.add(v);
+    // ======= Contexto rodante =======
+    /**
+     * Últimos {@code order} bytes vistos, sin objetos por símbolo. Los 8 más recientes van
+     * empacados en un long (el más nuevo en los bits bajos) y los anteriores en un anillo de
+     * bytes; además se lleva un hash rodante por orden: {@code hash[k]} resume los últimos k.
+     */
+    static final class Context {
+        static final long MUL = 0x9E3779B97F4A7C15L;
+        final int order;
+        private final long[] hash;
+        private final byte[] ring;
+        private final int mask;
+        private long recent;
+        private int pos, length;
+
+        Context(int order) {
+            this.order = order;
+            hash = new long[order + 1];
+            ring = new byte[Integer.highestOneBit(Math.max(order, 1) * 2 - 1)];
+            mask = ring.length - 1;
+        }
+
+        /** Bytes disponibles como contexto: min(vistos, order). */
+        int length() { return length; }
+
+        /** i-ésimo byte más reciente (0 = el último). */
+        int byteAt(int i) { return (i < 8) ? (int) (recent >>> (i << 3)) & 0xFF : ring[(pos - 1 - i) & mask] & 0xFF; }
+
+        /** Los últimos min(k, 8) bytes empacados; identifican exactamente los contextos k <= 8. */
+        long recent(int k) { return (k >= 8) ? recent : recent & ((1L << (k << 3)) - 1); }
+
+        long hash(int k) { return hash[k]; }
+
+        void push(int sym) {
+            for (int k = order; k > 0; k--) hash[k] = hash[k - 1] * MUL + sym + 1;
+            ring[pos++ & mask] = (byte) sym;
+            recent = (recent << 8) | sym;
+            if (length < order) length++;
         }
-        return list;
     }
 
     // ======= Modelo PPM =======
-    static class PPMModel {
-        final int order;
-        private final Map<CtxKey, Node> table = new HashMap<>();
-        PPMModel(int order) { this.order = order; }
-        void update(Deque<Integer> ctx, int sym) {
-            for (int k = 0; k <= order; k++) {
-                List<Integer> key = contextSuffix(ctx, k);
-                if (key == null) continue;
-                Node node = table.computeIfAbsent(new CtxKey(key), kk -> new Node());
-                node.add(sym);
+    /**
+     * Tabla de contextos vista desde el codificador: {@link #select} fija el contexto de orden k
+     * del contexto actual y las consultas de frecuencias se refieren a él; {@link #update}
+     * cuenta el símbolo en todos los órdenes antes de que el contexto avance.
+     */
+    interface ContextModel {
+        int order();
+        boolean select(Context ctx, int k);
+        int total();
+        boolean contains(int sym);
+        int cumFreq(int sym);
+        int symbolFromCum(int x);
+        void update(Context ctx, int sym);
+
+        // ---- Presupuesto de memoria (ver MemoryBudget) ----
+        /** Estimación determinista de los bytes que ocupa el modelo. */
+        long memoryBytes();
+        /** Nodos del modelo: contextos en HASH y OFFHEAP, contextos y hojas de símbolo en TRIE. */
+        long nodes();
+        boolean isEmpty();
+        void reset();
+        /** Divide las frecuencias entre 2 y descarta lo que queda en 0. */
+        void prune();
+        /** A partir de aquí no se crean contextos ni símbolos nuevos. */
+        void freeze();
+        boolean frozen();
+    }
+
+    /**
+     * Modelo de referencia: tabla hash de contextos, un nodo por contexto. Direccionamiento
+     * abierto sobre el hash rodante de {@link Context}; cada nodo guarda su contexto para
+     * confirmar la coincidencia, así que las colisiones del hash no alteran la salida.
+     */
+    static class PPMModel implements ContextModel {
+        final int order, maxTotal;
+        private static final int MIN_SLOTS = 1 << 10;
+        private Node[] slots = new Node[MIN_SLOTS];
+        private int count;
+        private long bytes = slotBytes(MIN_SLOTS);
+        private boolean frozen;
+        private Node cur;
+        PPMModel(int order) { this(order, DEFAULT_MAX_TOTAL); }
+        PPMModel(int order, int maxTotal) { this.order = order; this.maxTotal = maxTotal; }
+        public int order() { return order; }
+        public boolean select(Context ctx, int k) {
+            cur = (k <= ctx.length()) ? find(ctx, k, false) : null;
+            return cur != null;
+        }
+        public int total() { return cur.sum + 1; } // + ESC
+        public boolean contains(int sym) { return sym < ALPHABET_SIZE && cur.freq(sym) > 0; }
+        public int cumFreq(int sym) {
+            if (sym >= ESC) return (sym == ESC) ? cur.sum : cur.sum + 1;
+            return cur.cumFreq(sym);
+        }
+        public int symbolFromCum(int x) {
+            if (x >= cur.sum) return (x == cur.sum) ? ESC : MAX_SYMBOL;
+            return cur.symbolFromCum(x);
+        }
+        public void update(Context ctx, int sym) {
+            if (frozen) {
+                for (int k = 0; k <= ctx.length(); k++) {
+                    Node n = find(ctx, k, false);
+                    if (n != null && n.freq(sym) > 0) { n.add(sym); if (n.sum >= maxTotal) n.rescale(); }
+                }
+                return;
             }
+            for (int k = 0; k <= ctx.length(); k++) {
+                Node n = find(ctx, k, true);
+                bytes += n.add(sym);
+                if (n.sum >= maxTotal) n.rescale();
+            }
+        }
+        public long memoryBytes() { return bytes; }
+        public long nodes() { return count; }
+        public boolean isEmpty() { return count == 0; }
+        public void reset() {
+            slots = new Node[MIN_SLOTS]; count = 0; bytes = slotBytes(MIN_SLOTS);
+        }
+        public void prune() {
+            Node[] old = slots;
+            int live = 0;
+            for (Node n : old) if (n != null && n.halve() > 0) live++;
+            int cap = MIN_SLOTS;
+            while (live * 2 > cap) cap <<= 1;
+            slots = new Node[cap]; count = 0; bytes = slotBytes(cap);
+            for (Node n : old) {
+                if (n == null || n.sum == 0) continue;
+                insert(n); count++; bytes += n.bytes();
+            }
+        }
+        public void freeze() { frozen = true; }
+        public boolean frozen() { return frozen; }
+        private static long slotBytes(int slots) { return 16 + 4L * slots; }
+        private Node find(Context ctx, int k, boolean create) {
+            long h = ctx.hash(k) ^ (k * Context.MUL);
+            long recent = ctx.recent(k);
+            int m = slots.length - 1;
+            int i = (int) ((h * Context.MUL) >>> 40) & m;
+            for (Node n; (n = slots[i]) != null; i = (i + 1) & m)
+                if (n.hash == h && n.matches(ctx, k, recent)) return n;
+            if (!create) return null;
+            Node n = new Node(ctx, k, h, recent);
+            slots[i] = n;
+            bytes += n.bytes();
+            if (++count * 2 > slots.length) rehash();
+            return n;
+        }
+        private void rehash() {
+            Node[] old = slots;
+            slots = new Node[old.length << 1];
+            bytes += slotBytes(slots.length) - slotBytes(old.length);
+            for (Node n : old) if (n != null) insert(n);
         }
-        Stats getStats(List<Integer> ctx) {
-            if (ctx == null) return null;
-            Node node = table.get(new CtxKey(ctx));
-            return (node == null) ? null : node.stats();
+        private void insert(Node n) {
+            int m = slots.length - 1;
+            int i = (int) ((n.hash * Context.MUL) >>> 40) & m;
+            while (slots[i] != null) i = (i + 1) & m;
+            slots[i] = n;
         }
+        /**
+         * Frecuencias de bytes de un contexto (ESC vale 1 y lo agrega el modelo). Mientras tiene
+         * pocos símbolos es una lista ordenada; al pasar de {@link #DENSE} se convierte en un
+         * arreglo por símbolo más un Fenwick, y las sumas acumuladas cuestan O(log 256).
+         */
         static class Node {
-            Map<Integer,Integer> freq = new HashMap<>();
-            Node() { freq.put(ESC, 1); }
-            void add(int s) { freq.put(s, freq.getOrDefault(s,0)+1); }
-            Stats stats() {
-                int[] present = new int[MAX_SYMBOL+1];
-                for (Map.Entry<Integer,Integer> e: freq.entrySet())
-                    present[e.getKey()] = e.getValue();
-                int[] cum = new int[MAX_SYMBOL+2];
-                int run=0;
-                for (int s=0;s<=MAX_SYMBOL;s++){cum[s]=run; run+=present[s];}
-                cum[MAX_SYMBOL+1]=run;
-                return new Stats(present,cum,run);
-            }
-        }
-        static class Stats {
-            final int[] present; final int[] cum; final int total;
-            Stats(int[] p,int[] c,int t){present=p; cum=c; total=t;}
-            boolean contains(int sym){return sym>=0 && sym<=MAX_SYMBOL && present[sym]>0;}
-            int cumFreq(int sym){return cum[sym];}
-            int symbolFromCum(int x){
-                for(int s=0;s<=MAX_SYMBOL;s++) if (cum[s]<=x && x<cum[s+1]) return s;
-                return MAX_SYMBOL;
-            }
-        }
-        static class CtxKey {
-            final byte[] data;
-            CtxKey(List<Integer> ctx){data=new byte[ctx.size()]; for(int i=0;i<ctx.size();i++) data[i]=(byte)(ctx.get(i)&0xFF);}
-            @Override public boolean equals(Object o){return o instanceof CtxKey && Arrays.equals(data,((CtxKey)o).data);}
-            @Override public int hashCode(){return Arrays.hashCode(data);}
+            static final int DENSE = 16;
+            final int k; final long hash, recent;
+            final byte[] older; // bytes 8..k-1 del contexto cuando k > 8
+            short[] syms = new short[4]; int[] cnt = new int[4]; int n;
+            int[] fen; // != null: nodo denso, cnt indexado por símbolo
+            int sum;
+            Node(Context ctx, int k, long hash, long recent) {
+                this.k = k; this.hash = hash; this.recent = recent;
+                older = (k > 8) ? new byte[k - 8] : null;
+                for (int i = 8; i < k; i++) older[i - 8] = (byte) ctx.byteAt(i);
+            }
+            boolean matches(Context ctx, int k, long recent) {
+                if (this.k != k || this.recent != recent) return false;
+                for (int i = 8; i < k; i++) if ((older[i - 8] & 0xFF) != ctx.byteAt(i)) return false;
+                return true;
+            }
+            /** Cuenta s; devuelve cuántos bytes creció el nodo (casi siempre 0). */
+            int add(int s) {
+                sum++;
+                if (fen != null) { cnt[s]++; Fenwick.add(fen, 0, s, 1); return 0; }
+                int i = 0;
+                while (i < n && syms[i] < s) i++;
+                if (i < n && syms[i] == s) { cnt[i]++; return 0; }
+                int before = bytes();
+                if (n == DENSE) { densify(); cnt[s]++; Fenwick.add(fen, 0, s, 1); return bytes() - before; }
+                if (n == syms.length) { syms = Arrays.copyOf(syms, n << 1); cnt = Arrays.copyOf(cnt, n << 1); }
+                System.arraycopy(syms, i, syms, i + 1, n - i);
+                System.arraycopy(cnt, i, cnt, i + 1, n - i);
+                syms[i] = (short) s; cnt[i] = 1; n++;
+                return bytes() - before;
+            }
+            /** Frecuencias a la mitad, sin los símbolos que quedan en 0; devuelve la nueva suma. */
+            int halve() {
+                sum = 0;
+                if (fen != null) {
+                    Arrays.fill(fen, 0);
+                    for (int s = 0; s < ALPHABET_SIZE; s++) {
+                        cnt[s] >>= 1;
+                        if (cnt[s] > 0) { sum += cnt[s]; Fenwick.add(fen, 0, s, cnt[s]); }
+                    }
+                    return sum;
+                }
+                int m = 0;
+                for (int i = 0; i < n; i++) {
+                    int c = cnt[i] >> 1;
+                    if (c == 0) continue;
+                    syms[m] = syms[i]; cnt[m++] = c; sum += c;
+                }
+                n = m;
+                return sum;
+            }
+            /** Frecuencias a la mitad redondeando hacia arriba: ningún símbolo llega a 0. */
+            void rescale() {
+                sum = 0;
+                if (fen != null) {
+                    Arrays.fill(fen, 0);
+                    for (int s = 0; s < ALPHABET_SIZE; s++) {
+                        if (cnt[s] == 0) continue;
+                        cnt[s] = (cnt[s] + 1) >> 1; sum += cnt[s]; Fenwick.add(fen, 0, s, cnt[s]);
+                    }
+                    return;
+                }
+                for (int i = 0; i < n; i++) { cnt[i] = (cnt[i] + 1) >> 1; sum += cnt[i]; }
+            }
+            /** Estimación: encabezado y campos del objeto más sus arreglos. */
+            int bytes() {
+                int b = 64 + ((older != null) ? 16 + older.length : 0);
+                return (fen != null) ? b + 2 * (16 + 4 * ALPHABET_SIZE) : b + 16 + 2 * syms.length + 16 + 4 * cnt.length;
+            }
+            int freq(int s) {
+                if (fen != null) return cnt[s];
+                for (int i = 0; i < n && syms[i] <= s; i++) if (syms[i] == s) return cnt[i];
+                return 0;
+            }
+            int cumFreq(int s) {
+                if (fen != null) return Fenwick.prefix(fen, 0, s);
+                int run = 0;
+                for (int i = 0; i < n && syms[i] < s; i++) run += cnt[i];
+                return run;
+            }
+            int symbolFromCum(int x) {
+                if (fen != null) return Fenwick.find(fen, 0, x);
+                int run = 0;
+                for (int i = 0; i < n; i++) { run += cnt[i]; if (x < run) return syms[i]; }
+                return ESC;
+            }
+            private void densify() {
+                int[] dense = new int[ALPHABET_SIZE];
+                fen = new int[ALPHABET_SIZE];
+                for (int i = 0; i < n; i++) { dense[syms[i]] = cnt[i]; Fenwick.add(fen, 0, syms[i], cnt[i]); }
+                cnt = dense; syms = null;
+            }
         }
     }
 
+    /**
+     * Árbol de Fenwick sobre los 256 bytes guardado en {@code t[base .. base+255]}, para poder
+     * empacar varios en un mismo arreglo. {@code prefix(s)} suma las frecuencias de [0, s).
+     */
+    static final class Fenwick {
+        static final int N = ALPHABET_SIZE;
+        static void add(int[] t, int base, int s, int d) {
+            for (int j = s + 1; j <= N; j += j & -j) t[base + j - 1] += d;
+        }
+        static int prefix(int[] t, int base, int s) {
+            int r = 0;
+            for (int j = s; j > 0; j -= j & -j) r += t[base + j - 1];
+            return r;
+        }
+        /** Símbolo s con prefix(s) <= x < prefix(s+1); N si x rebasa la suma total. */
+        static int find(int[] t, int base, int x) {
+            int pos = 0;
+            for (int step = N; step > 0; step >>= 1) {
+                int nxt = pos + step;
+                if (nxt <= N && t[base + nxt - 1] <= x) { pos = nxt; x -= t[base + nxt - 1]; }
+            }
+            return pos;
+        }
+    }
+
+    /**
+     * Trie de contextos con punteros de sufijo (vine) en arreglos primitivos. Cada nodo es el
+     * contexto de su padre extendido con {@code sym} y su {@code count} es la frecuencia de ese
+     * símbolo en el contexto padre; los hijos se mantienen ordenados por símbolo. {@code chain[k]}
+     * es el nodo del contexto de orden k actual: tras cada símbolo se obtiene de los hijos que
+     * {@link #update} acaba de tocar, sin búsquedas ni objetos por símbolo.
+     */
+    static class TrieModel implements ContextModel {
+        static final int NIL = -1, ROOT = 0;
+        /** Hijos a partir de los cuales un nodo usa bloque denso en {@code pool}. */
+        static final int DENSE = 16, BLOCK = 2 * ALPHABET_SIZE;
+        /** sym (short) más 7 campos int por nodo. */
+        static final int NODE_BYTES = 2 + 7 * 4;
+        static final int KEEP = -2;
+        final int order, maxTotal;
+        short[] sym; int[] count, total, child, sibling, vine, degree, dense;
+        int size;
+        /** Bloques densos: Fenwick de frecuencias [0..255] e índice símbolo→hijo [256..511]. */
+        int[] pool = new int[0];
+        int poolSize;
+        final int[] chain;
+        int depth, cur;
+        boolean frozen;
+
+        TrieModel(int order) { this(order, DEFAULT_MAX_TOTAL); }
+
+        TrieModel(int order, int maxTotal) {
+            this.order = order;
+            this.maxTotal = maxTotal;
+            int cap = 1 << 12;
+            sym = new short[cap]; count = new int[cap]; total = new int[cap];
+            child = new int[cap]; sibling = new int[cap]; vine = new int[cap];
+            degree = new int[cap]; dense = new int[cap];
+            chain = new int[order + 1];
+            size = 1; child[ROOT] = NIL; sibling[ROOT] = NIL; vine[ROOT] = NIL; dense[ROOT] = NIL;
+            chain[0] = ROOT;
+        }
+
+        /**
+         * Copia de un modelo entrenado; el contexto arranca vacío y los vine existentes siguen valiendo.
+         * Los contextos que ya rebasan {@code maxTotal} se reescalan al copiar.
+         */
+        TrieModel(PrimedModel p, int maxTotal) {
+            order = p.order; size = p.size; poolSize = p.poolSize; frozen = p.frozen;
+            this.maxTotal = maxTotal;
+            int cap = Math.max(size, 16);
+            sym = Arrays.copyOf(p.sym, cap); count = Arrays.copyOf(p.count, cap); total = Arrays.copyOf(p.total, cap);
+            child = Arrays.copyOf(p.child, cap); sibling = Arrays.copyOf(p.sibling, cap); vine = Arrays.copyOf(p.vine, cap);
+            degree = Arrays.copyOf(p.degree, cap); dense = Arrays.copyOf(p.dense, cap);
+            pool = Arrays.copyOf(p.pool, poolSize);
+            chain = new int[order + 1];
+            chain[0] = ROOT;
+            for (int i = 0; i < size; i++) while (total[i] >= maxTotal) rescale(i);
+        }
+
+        public int order() { return order; }
+
+        public boolean select(Context ctx, int k) {
+            if (k > depth) return false; // depth <= ctx.length(); menor tras reset() o prune()
+            cur = chain[k];
+            return child[cur] != NIL; // contexto visto pero sin símbolos: igual que ausente
+        }
+
+        public int total() { return total[cur] + 1; } // + ESC
+
+        public boolean contains(int s) { return s < ALPHABET_SIZE && findChild(cur, s) != NIL; }
+
+        public int cumFreq(int s) {
+            if (s >= ESC) return (s == ESC) ? total[cur] : total[cur] + 1;
+            int b = dense[cur];
+            if (b != NIL) return Fenwick.prefix(pool, b, s);
+            int run = 0;
+            for (int c = child[cur]; c != NIL && sym[c] < s; c = sibling[c]) run += count[c];
+            return run;
+        }
+
+        public int symbolFromCum(int x) {
+            if (x >= total[cur]) return (x == total[cur]) ? ESC : MAX_SYMBOL;
+            int b = dense[cur];
+            if (b != NIL) return Fenwick.find(pool, b, x);
+            int run = 0;
+            for (int c = child[cur]; ; c = sibling[c]) {
+                run += count[c];
+                if (x < run) return sym[c];
+            }
+        }
+
+        public void update(Context ctx, int s) {
+            if (frozen) { updateFrozen(s); return; }
+            int prev = NIL;
+            for (int d = depth, node = chain[depth]; ; d--, node = vine[node]) {
+                int c = childOrAdd(node, s);
+                count[c]++; total[node]++;
+                if (dense[node] != NIL) Fenwick.add(pool, dense[node], s, 1);
+                if (total[node] >= maxTotal) rescale(node);
+                if (prev != NIL) vine[prev] = c;
+                prev = c;
+                if (d < order) chain[d + 1] = c;
+                if (node == ROOT) break;
+            }
+            vine[prev] = ROOT;
+            if (depth < order) depth++;
+        }
+
+        /** Como update() pero sólo cuenta hijos existentes; la cadena llega hasta donde haya nodos. */
+        private void updateFrozen(int s) {
+            for (int d = depth; d >= 0; d--) {
+                int node = chain[d], c = findChild(node, s);
+                if (c != NIL) {
+                    count[c]++; total[node]++;
+                    if (dense[node] != NIL) Fenwick.add(pool, dense[node], s, 1);
+                    if (total[node] >= maxTotal) rescale(node);
+                }
+                if (d < order) chain[d + 1] = c;
+            }
+            int j = 0, max = Math.min(depth + 1, order);
+            while (j < max && chain[j + 1] != NIL) j++;
+            depth = j;
+        }
+
+        public long memoryBytes() { return (long) size * NODE_BYTES + 4L * poolSize; }
+
+        public long nodes() { return size; }
+
+        public boolean isEmpty() { return size == 1; }
+
+        public void reset() {
+            size = 1; poolSize = 0; depth = 0;
+            child[ROOT] = NIL; total[ROOT] = 0; degree[ROOT] = 0; dense[ROOT] = NIL;
+        }
+
+        /**
+         * Poda en sitio. Un hijo siempre tiene índice mayor que su padre, así que basta recorrer
+         * los índices en orden: la primera pasada divide las frecuencias y decide qué nodos siguen
+         * (los hijos con frecuencia > 0 de nodos que siguen), la segunda los compacta hacia abajo.
+         * Los vine se descartan; update() los vuelve a fijar conforme la cadena se reconstruye.
+         */
+        public void prune() {
+            int[] remap = new int[size];
+            Arrays.fill(remap, NIL);
+            remap[ROOT] = KEEP;
+            int next = 0;
+            for (int i = 0; i < size; i++) {
+                if (remap[i] != KEEP) continue;
+                remap[i] = next++;
+                int prev = NIL, tot = 0, deg = 0;
+                for (int c = child[i]; c != NIL; c = sibling[c]) {
+                    count[c] >>= 1;
+                    if (count[c] == 0) continue;
+                    remap[c] = KEEP; tot += count[c]; deg++;
+                    if (prev == NIL) child[i] = c; else sibling[prev] = c;
+                    prev = c;
+                }
+                if (prev == NIL) child[i] = NIL; else sibling[prev] = NIL;
+                total[i] = tot; degree[i] = deg;
+            }
+            for (int i = 0; i < size; i++) {
+                int j = remap[i];
+                if (j == NIL) continue;
+                sym[j] = sym[i]; count[j] = count[i]; total[j] = total[i]; degree[j] = degree[i];
+                child[j] = (child[i] == NIL) ? NIL : remap[child[i]];
+                sibling[j] = (sibling[i] == NIL) ? NIL : remap[sibling[i]];
+                vine[j] = NIL; dense[j] = NIL;
+            }
+            size = next; poolSize = 0; depth = 0;
+            for (int j = 0; j < size; j++) if (degree[j] > DENSE) densify(j);
+        }
+
+        public void freeze() { frozen = true; }
+
+        public boolean frozen() { return frozen; }
+
+        /** Frecuencias de los hijos de {@code node} a la mitad redondeando hacia arriba; no se pierde ningún nodo. */
+        private void rescale(int node) {
+            int b = dense[node], tot = 0;
+            if (b != NIL) Arrays.fill(pool, b, b + ALPHABET_SIZE, 0);
+            for (int c = child[node]; c != NIL; c = sibling[c]) {
+                count[c] = (count[c] + 1) >> 1;
+                tot += count[c];
+                if (b != NIL) Fenwick.add(pool, b, sym[c], count[c]);
+            }
+            total[node] = tot;
+        }
+
+        private int findChild(int node, int s) {
+            if (dense[node] != NIL) return pool[dense[node] + ALPHABET_SIZE + s];
+            for (int c = child[node]; c != NIL && sym[c] <= s; c = sibling[c])
+                if (sym[c] == s) return c;
+            return NIL;
+        }
+
+        private int childOrAdd(int node, int s) {
+            int found = findChild(node, s);
+            if (found != NIL) return found;
+            int prev = NIL, c = child[node];
+            while (c != NIL && sym[c] < s) { prev = c; c = sibling[c]; }
+            if (size == sym.length) grow();
+            int n = size++;
+            sym[n] = (short) s; count[n] = 0; total[n] = 0; degree[n] = 0; dense[n] = NIL;
+            child[n] = NIL; vine[n] = NIL; sibling[n] = c;
+            if (prev == NIL) child[node] = n; else sibling[prev] = n;
+            if (dense[node] != NIL) pool[dense[node] + ALPHABET_SIZE + s] = n;
+            else if (++degree[node] > DENSE) densify(node);
+            return n;
+        }
+
+        /** Pasa el nodo a bloque denso; los hijos siguen además en la lista ordenada. */
+        private void densify(int node) {
+            if (poolSize + BLOCK > pool.length) pool = Arrays.copyOf(pool, Math.max(BLOCK * 16, pool.length << 1));
+            int b = poolSize;
+            poolSize += BLOCK;
+            Arrays.fill(pool, b, b + ALPHABET_SIZE, 0);
+            Arrays.fill(pool, b + ALPHABET_SIZE, b + BLOCK, NIL);
+            for (int c = child[node]; c != NIL; c = sibling[c]) {
+                Fenwick.add(pool, b, sym[c], count[c]);
+                pool[b + ALPHABET_SIZE + sym[c]] = c;
+            }
+            dense[node] = b;
+        }
+
+        private void grow() {
+            int cap = sym.length << 1;
+            sym = Arrays.copyOf(sym, cap); count = Arrays.copyOf(count, cap); total = Arrays.copyOf(total, cap);
+            child = Arrays.copyOf(child, cap); sibling = Arrays.copyOf(sibling, cap); vine = Arrays.copyOf(vine, cap);
+            degree = Arrays.copyOf(degree, cap); dense = Arrays.copyOf(dense, cap);
+        }
+    }
+
+    // ======= Codificadores de entropía =======
+    /** Codifica el intervalo [cumLow, cumHigh) de total; finish() vacía lo pendiente. */
+    interface SymbolEncoder {
+        void encode(int cumLow, int cumHigh, int total) throws IOException;
+        void finish() throws IOException;
+    }
+
+    /** getTarget(total) da la frecuencia acumulada del siguiente símbolo; decode() lo consume. */
+    interface SymbolDecoder {
+        int getTarget(int total);
+        void decode(int cumLow, int cumHigh, int total) throws IOException;
+    }
+
     // ======= Arithmetic coder =======
-    static class ArithmeticEncoder {
+    static class ArithmeticEncoder implements SymbolEncoder {
+        /** Tras renormalizar high-low+1 > 2^30: con total <= 2^30 toda frecuencia >= 1 deja un intervalo no vacío. */
+        static final int MAX_TOTAL = 1 << 30;
         private long low=0,high=TOP,pending=0; private final BitOutput out;
         ArithmeticEncoder(BitOutput out){this.out=out;}
-        void encode(int cumLow,int cumHigh,int total)throws IOException{
+        public void encode(int cumLow,int cumHigh,int total)throws IOException{
             long rng=high-low+1;
             high=low+(rng*cumHigh)/total-1;
             low=low+(rng*cumLow)/total;
@@ -261,17 +1071,18 @@ public class Ppm {
                 low=(low<<1)&TOP; high=((high<<1)|1)&TOP;
             }
         }
-        void finish()throws IOException{
-            int msb=(int)(low>>>31); out.writeBit(msb); pending++;
-            while(pending-->0) out.writeBit(1-msb); out.flush();
+        public void finish()throws IOException{
+            // low < 1/4 termina en 01.., si no en 10..: ambos quedan dentro de [low, high]
+            int bit=((low&0x40000000L)==0)?0:1; out.writeBit(bit); pending++;
+            while(pending-->0) out.writeBit(1-bit); out.flush();
         }
     }
 
-    static class ArithmeticDecoder {
+    static class ArithmeticDecoder implements SymbolDecoder {
         private long low=0,high=TOP,code=0; private final BitInput in;
         ArithmeticDecoder(BitInput in)throws IOException{this.in=in;for(int i=0;i<32;i++)code=(code<<1)|in.readBit();}
-        int getTarget(int total){long rng=high-low+1; long val=((code-low+1)*total-1)/rng; return (int)Math.max(0,Math.min(total-1,val));}
-        void decode(int cumLow,int cumHigh,int total)throws IOException{
+        public int getTarget(int total){long rng=high-low+1; long val=((code-low+1)*total-1)/rng; return (int)Math.max(0,Math.min(total-1,val));}
+        public void decode(int cumLow,int cumHigh,int total)throws IOException{
             long rng=high-low+1; high=low+(rng*cumHigh)/total-1; low=low+(rng*cumLow)/total;
             while(true){
                 if((high&0x80000000L)==(low&0x80000000L)){
@@ -283,21 +1094,108 @@ public class Ppm {
         }
     }
 
+    // ======= Range coder =======
+    /**
+     * Range coder sin acarreo (Subbotin) de 64 bits: low y range se tratan sin signo y se
+     * renormaliza un byte a la vez. Si el byte alto de low y de low+range coincide ya no puede
+     * cambiar y se emite; si range cae bajo BOT se recorta hasta el siguiente múltiplo de BOT
+     * para que nunca haya acarreo. Tras renormalizar range >= 2^48, así que cualquier total de
+     * 32 bits deja al menos una unidad por frecuencia. Los bytes van a un byte[] propio que se
+     * vacía al OutputStream por bloques.
+     */
+    static class RangeEncoder implements SymbolEncoder {
+        static final long BOT = 1L << 48;
+        /** range >= 2^48 aguanta cualquier total int; el límite es que sum + 1 quepa en un int. */
+        static final int MAX_TOTAL = Integer.MAX_VALUE;
+        private long low = 0, range = -1L; // range = 2^64 - 1
+        private final OutputStream out; private final byte[] buf; private int pos;
+        RangeEncoder(OutputStream out) { this(out, new byte[1 << 16]); }
+        /** Con un buffer prestado (ver {@link PpmPool}); no se comparte entre coders vivos. */
+        RangeEncoder(OutputStream out, byte[] buf) { this.out = out; this.buf = buf; }
+        public void encode(int cumLow, int cumHigh, int total) throws IOException {
+            long r = Long.divideUnsigned(range, total);
+            low += r * cumLow;
+            range = r * (cumHigh - cumLow);
+            while (true) {
+                if (((low ^ (low + range)) >>> 56) != 0) {
+                    if ((range >>> 48) != 0) break;
+                    range = -low & (BOT - 1);
+                }
+                if (pos == buf.length) { out.write(buf, 0, pos); pos = 0; }
+                buf[pos++] = (byte) (low >>> 56);
+                low <<= 8; range <<= 8;
+            }
+        }
+        public void finish() throws IOException {
+            for (int i = 0; i < 8; i++) {
+                if (pos == buf.length) { out.write(buf, 0, pos); pos = 0; }
+                buf[pos++] = (byte) (low >>> 56);
+                low <<= 8;
+            }
+            out.write(buf, 0, pos); pos = 0;
+            out.flush();
+        }
+    }
+
+    static class RangeDecoder implements SymbolDecoder {
+        private long low = 0, range = -1L, code = 0, r;
+        private final InputStream in; private final byte[] buf; private int pos, lim;
+        RangeDecoder(InputStream in) throws IOException { this(in, new byte[1 << 16]); }
+        RangeDecoder(InputStream in, byte[] buf) throws IOException {
+            this.in = in; this.buf = buf;
+            for (int i = 0; i < 8; i++) code = (code << 8) | nextByte();
+        }
+        public int getTarget(int total) {
+            r = Long.divideUnsigned(range, total);
+            long v = Long.divideUnsigned(code - low, r);
+            return (Long.compareUnsigned(v, total - 1) > 0) ? total - 1 : (int) v;
+        }
+        public void decode(int cumLow, int cumHigh, int total) throws IOException {
+            low += r * cumLow; // r quedó de getTarget(total)
+            range = r * (cumHigh - cumLow);
+            while (true) {
+                if (((low ^ (low + range)) >>> 56) != 0) {
+                    if ((range >>> 48) != 0) break;
+                    range = -low & (RangeEncoder.BOT - 1);
+                }
+                code = (code << 8) | nextByte();
+                low <<= 8; range <<= 8;
+            }
+        }
+        private int nextByte() throws IOException {
+            if (pos == lim) {
+                lim = in.read(buf, 0, buf.length); pos = 0;
+                if (lim <= 0) { lim = 0; return 0; } // más allá del final: ceros
+            }
+            return buf[pos++] & 0xFF;
+        }
+    }
+
     // ======= Bit I/O =======
+    // Ambos acumulan en un byte[] propio y hablan con el stream por bloques
     static class BitOutput implements Closeable {
         private final OutputStream out; private int current=0,bits=0;
+        private final byte[] buf=new byte[IO_CHUNK]; private int pos=0;
         BitOutput(OutputStream out){this.out=out;}
-        void writeBit(int b)throws IOException{current=(current<<1)|(b&1);bits++;if(bits==8){out.write(current);current=0;bits=0;}}
-        void flush()throws IOException{if(bits>0){current<<=(8-bits);out.write(current);}current=0;bits=0;out.flush();}
+        void writeBit(int b)throws IOException{current=(current<<1)|(b&1);bits++;if(bits==8)put();}
+        void flush()throws IOException{if(bits>0){current<<=(8-bits);put();}out.write(buf,0,pos);pos=0;out.flush();}
+        private void put()throws IOException{if(pos==buf.length){out.write(buf,0,pos);pos=0;}buf[pos++]=(byte)current;current=0;bits=0;}
         public void close()throws IOException{flush();out.close();}
     }
     static class BitInput {
         private final InputStream in; private int current=0,bits=0;
+        private final byte[] buf=new byte[IO_CHUNK]; private int pos=0,lim=0;
         BitInput(InputStream in){this.in=in;}
+        /** Olvida lo leído por adelantado para volver a empezar sobre el mismo stream (ver {@link PpmPool}). */
+        void reset(){current=0;bits=0;pos=0;lim=0;}
         int readBit()throws IOException{
-            if(bits==0){int nb=in.read(); if(nb==-1)nb=0; current=nb&0xFF; bits=8;}
+            if(bits==0){current=nextByte();bits=8;}
             int b=(current>>>7)&1; current=(current<<1)&0xFF; bits--; return b;
         }
+        private int nextByte()throws IOException{
+            if(pos==lim){lim=in.read(buf,0,buf.length);pos=0;if(lim<=0){lim=0;return 0;}} // más allá del final: ceros
+            return buf[pos++]&0xFF;
+        }
     }
 }
 
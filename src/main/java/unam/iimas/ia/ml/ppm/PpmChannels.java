@@ -0,0 +1,121 @@
+package unam.iimas.ia.ml.ppm;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Adaptadores entre canales NIO y los streams del núcleo. El núcleo lee y escribe por bloques,
+ * así que aquí sólo se copian bloques completos: de un archivo mapeado a memoria, de un canal a
+ * través de un ByteBuffer directo, o de vuelta hacia un canal. Ninguno cierra el canal que
+ * envuelve; eso le toca a quien lo abrió.
+ */
+final class PpmChannels {
+    static final int BUFFER = 1 << 20;
+    static final long SEGMENT = 1L << 30; // un MappedByteBuffer no pasa de 2 GB: se mapea por segmentos
+
+    private PpmChannels() {}
+
+    /** Entrada desde un canal: los FileChannel se mapean, el resto se lee a un buffer directo. */
+    static InputStream input(ReadableByteChannel ch) throws IOException {
+        return (ch instanceof FileChannel fc) ? new MappedInput(fc) : new ChannelInput(ch);
+    }
+
+    /** Lee un FileChannel desde su posición actual mapeándolo en segmentos; la posición avanza con cada segmento. */
+    static final class MappedInput extends InputStream {
+        private final FileChannel ch;
+        private final long size;
+        private long mapped;
+        private MappedByteBuffer buf;
+
+        MappedInput(FileChannel ch) throws IOException {
+            this.ch = ch;
+            this.size = ch.size();
+            this.mapped = ch.position();
+        }
+
+        private boolean ensure() throws IOException {
+            if (buf != null && buf.hasRemaining()) return true;
+            if (mapped >= size) return false;
+            long len = Math.min(SEGMENT, size - mapped);
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, mapped, len);
+            mapped += len;
+            ch.position(mapped);
+            return true;
+        }
+
+        @Override public int read() throws IOException { return ensure() ? buf.get() & 0xFF : -1; }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!ensure()) return -1;
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+    }
+
+    /** Lee un canal cualquiera (bloqueante) a través de un ByteBuffer directo. */
+    static final class ChannelInput extends InputStream {
+        private final ReadableByteChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER).limit(0);
+        private boolean eof;
+
+        ChannelInput(ReadableByteChannel ch) { this.ch = ch; }
+
+        private boolean fill() throws IOException {
+            while (!buf.hasRemaining() && !eof) {
+                buf.clear();
+                if (ch.read(buf) == -1) eof = true;
+                buf.flip();
+            }
+            return buf.hasRemaining();
+        }
+
+        @Override public int read() throws IOException { return fill() ? buf.get() & 0xFF : -1; }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!fill()) return -1;
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+    }
+
+    /** Escribe a un canal a través de un ByteBuffer directo; close() sólo vacía el buffer. */
+    static final class ChannelOutput extends OutputStream {
+        private final WritableByteChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER);
+
+        ChannelOutput(WritableByteChannel ch) { this.ch = ch; }
+
+        @Override public void write(int b) throws IOException {
+            if (!buf.hasRemaining()) drain();
+            buf.put((byte) b);
+        }
+
+        @Override public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!buf.hasRemaining()) drain();
+                int n = Math.min(len, buf.remaining());
+                buf.put(b, off, n);
+                off += n; len -= n;
+            }
+        }
+
+        @Override public void flush() throws IOException { drain(); }
+
+        @Override public void close() throws IOException { drain(); }
+
+        private void drain() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) ch.write(buf);
+            buf.clear();
+        }
+    }
+}
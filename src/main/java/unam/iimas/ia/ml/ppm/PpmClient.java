@@ -0,0 +1,152 @@
+package unam.iimas.ia.ml.ppm;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Una conexión a un {@link PpmServer}. No es para usarse desde varios hilos a la vez: cada hilo
+ * abre la suya (las conexiones son baratas y el servidor atiende cada una en un hilo virtual).
+ * Lo que el servidor responde con error llega como IOException con su mensaje y la conexión sigue
+ * sirviendo; si falla la conexión misma (o llega una respuesta mal formada) el cliente se cierra,
+ * porque ya no se sabe a qué petición corresponde lo que falte por leer. Un orden fuera de
+ * [0, 255] falla con IllegalArgumentException sin mandar nada.
+ */
+public final class PpmClient implements Closeable {
+
+    /**
+     * Tope de bytes de petición por tanda en {@link #compressAll}: mientras el cliente escribe no
+     * lee, y si las respuestas llenan los buffers del socket ambos lados quedarían esperando.
+     */
+    static final int BATCH_BYTES = 1 << 15;
+
+    private final SocketChannel ch;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    public PpmClient(SocketAddress address) throws IOException {
+        ch = SocketChannel.open(address);
+        if (address instanceof InetSocketAddress) ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), 1 << 16));
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16));
+    }
+
+    public byte[] compress(byte[] data, int order) throws IOException {
+        checkOrder(order);
+        send(PpmServer.COMPRESS, order, data);
+        out.flush();
+        return receive();
+    }
+
+    public byte[] decompress(byte[] data, int order) throws IOException {
+        checkOrder(order);
+        send(PpmServer.DECOMPRESS, order, data);
+        out.flush();
+        return receive();
+    }
+
+    /**
+     * Comprime cada payload por separado (cada resultado se descomprime solo) pero sin esperar la
+     * respuesta de uno para mandar el siguiente: se mandan en tandas de hasta {@link #BATCH_BYTES}
+     * y el servidor contesta cada tanda en una sola escritura. Si alguno falla en el servidor se
+     * leen de todos modos las respuestas del resto de su tanda (para que la conexión quede
+     * alineada), no se mandan las tandas siguientes y se lanza el primer error.
+     */
+    public List<byte[]> compressAll(List<byte[]> data, int order) throws IOException {
+        return batch(PpmServer.COMPRESS, data, order);
+    }
+
+    public List<byte[]> decompressAll(List<byte[]> data, int order) throws IOException {
+        return batch(PpmServer.DECOMPRESS, data, order);
+    }
+
+    /** Cuentas y latencia del servidor (ver {@link PpmServer#stats()}). */
+    public String stats() throws IOException {
+        send(PpmServer.STATS, 0, new byte[0]);
+        out.flush();
+        return new String(receive(), StandardCharsets.UTF_8);
+    }
+
+    @Override public void close() throws IOException { ch.close(); }
+
+    // ======= Protocolo =======
+    private List<byte[]> batch(int op, List<byte[]> data, int order) throws IOException {
+        checkOrder(order);
+        List<byte[]> results = new ArrayList<>(data.size());
+        for (int i = 0; i < data.size(); ) {
+            int sent = 0;
+            long bytes = 0;
+            do {
+                byte[] d = data.get(i + sent);
+                send(op, order, d);
+                bytes += d.length;
+                sent++;
+            } while (i + sent < data.size() && bytes + data.get(i + sent).length <= BATCH_BYTES);
+            out.flush();
+            ServerError failed = null;
+            for (int k = 0; k < sent; k++) {
+                try {
+                    results.add(receive());
+                } catch (ServerError e) {
+                    if (failed == null) failed = e;
+                }
+            }
+            if (failed != null) throw failed;
+            i += sent;
+        }
+        return results;
+    }
+
+    /**
+     * El orden viaja en un byte: 256 llegaría como 0 y el servidor contestaría con otro orden. Se
+     * revisa antes de escribir nada para no dejar una petición a medias en la conexión.
+     */
+    private static void checkOrder(int order) {
+        if (order < 0 || order > PpmPool.MAX_ORDER)
+            throw new IllegalArgumentException("Orden fuera de [0, " + PpmPool.MAX_ORDER + "]: " + order);
+    }
+
+    private void send(int op, int order, byte[] data) throws IOException {
+        try {
+            out.writeByte(op);
+            out.writeByte(order);
+            out.writeInt(data.length);
+            out.write(data);
+        } catch (IOException e) {
+            ch.close(); // una petición a medias desalinea todo lo que siga
+            throw e;
+        }
+    }
+
+    /** Una respuesta completa con estado de error: la conexión sigue alineada. */
+    private static final class ServerError extends IOException {
+        ServerError(String message) { super(message); }
+    }
+
+    private byte[] receive() throws IOException {
+        int status;
+        byte[] data;
+        try {
+            status = in.readUnsignedByte();
+            int len = in.readInt();
+            if (len < 0) throw new IOException("Respuesta con largo inválido: " + len);
+            data = new byte[len];
+            in.readFully(data);
+        } catch (IOException e) {
+            ch.close(); // respuesta a medias: lo que siga en el stream ya no se sabe de quién es
+            throw e;
+        }
+        if (status != PpmServer.OK) throw new ServerError("PpmServer: " + new String(data, StandardCharsets.UTF_8));
+        return data;
+    }
+}
@@ -0,0 +1,290 @@
+package unam.iimas.ia.ml.ppm;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * Contenedor por bloques para comprimir en paralelo. La entrada se corta en bloques de
+ * {@code blockSize} bytes (ajustados al último fin de línea para no partir renglones del CSV)
+ * y cada bloque se comprime con su propio modelo en un ForkJoinPool.
+ *
+ * <pre>
+ * encabezado: "PPMB" | versión (1 byte) | orden (1 byte) | codificador (1 byte) | blockSize (int)
+ *             | modelo (1 byte) | política de memoria (1 byte) | maxModelBytes (long) | maxTotal (int)
+ * por bloque: largo original (int) | largo comprimido (int) | CRC32 del original (int) | datos
+ * fin:        -1 (int)
+ * </pre>
+ * Los bytes de codificador, modelo y política son ordinales de {@link Ppm.CoderType},
+ * {@link Ppm.ModelType} y {@link Ppm.MemoryPolicy}. El modelo va en el encabezado porque con
+ * presupuesto de memoria cada implementación aplica la política en puntos distintos. La versión 1
+ * no tenía codificador (siempre aritmético), las versiones 1 y 2 no tenían presupuesto y hasta la 3
+ * no había maxTotal (se leen con {@link Ppm#DEFAULT_MAX_TOTAL}).
+ */
+public class PpmContainer {
+
+    static final int MAGIC = 0x50504D42; // "PPMB"
+    static final int VERSION = 4;
+    static final int END = -1;
+    static final int MAX_ORDER = 255; // el orden va en un byte del encabezado
+    static final int READ_CHUNK = 1 << 16;
+
+    // ======= Compresión =======
+    static void compress(InputStream in, OutputStream out, Ppm.Options opt) throws IOException {
+        checkOrder(opt.order);
+        Ppm.Options blockOpt = blockOptions(opt, opt.order, opt.coder, opt.model, opt.memoryPolicy, opt.maxModelBytes, opt.maxTotal);
+        DataOutputStream dout = new DataOutputStream(out);
+        dout.writeInt(MAGIC);
+        dout.writeByte(VERSION);
+        dout.writeByte(opt.order);
+        dout.writeByte(opt.coder.ordinal());
+        dout.writeInt(opt.blockSize);
+        dout.writeByte(opt.model.ordinal());
+        dout.writeByte(opt.memoryPolicy.ordinal());
+        dout.writeLong(opt.maxModelBytes);
+        dout.writeInt(opt.maxTotal);
+
+        ForkJoinPool pool = pool(opt);
+        try {
+            // A lo más 2 bloques en vuelo por hilo: la memoria no crece con el archivo
+            int window = 2 * pool.getParallelism();
+            ArrayDeque<Future<Frame>> pending = new ArrayDeque<>();
+            LineBlocks blocks = new LineBlocks(in, opt.blockSize);
+            for (byte[] raw; (raw = blocks.next()) != null; ) {
+                byte[] block = raw;
+                pending.add(pool.submit(() -> Frame.encode(block, blockOpt)));
+                if (pending.size() >= window) join(pending.poll()).write(dout);
+            }
+            while (!pending.isEmpty()) join(pending.poll()).write(dout);
+            dout.writeInt(END);
+            dout.flush();
+        } finally {
+            if (pool != ForkJoinPool.commonPool()) pool.shutdown();
+        }
+    }
+
+    // ======= Descompresión =======
+    static void decompress(InputStream in, OutputStream out, Ppm.Options opt) throws IOException {
+        DataInputStream din = new DataInputStream(in);
+        if (din.readInt() != MAGIC) throw new IOException("No es un contenedor PPMB");
+        int version = din.readUnsignedByte();
+        if (version < 1 || version > VERSION) throw new IOException("Versión de contenedor no soportada: " + version);
+        int order = din.readUnsignedByte();
+        Ppm.CoderType coder = (version >= 2) ? readEnum(din, Ppm.CoderType.values(), "Codificador") : Ppm.CoderType.ARITH;
+        int blockSize = din.readInt(); // ningún bloque original pasa de aquí
+        if (blockSize <= 0) throw new IOException("Tamaño de bloque inválido: " + blockSize);
+        Ppm.ModelType model = opt.model;
+        Ppm.MemoryPolicy policy = Ppm.MemoryPolicy.RESTART;
+        long maxModelBytes = 0;
+        if (version >= 3) {
+            model = readEnum(din, Ppm.ModelType.values(), "Modelo");
+            policy = readEnum(din, Ppm.MemoryPolicy.values(), "Política de memoria");
+            maxModelBytes = din.readLong();
+        }
+        int maxTotal = (version >= 4) ? din.readInt() : Ppm.DEFAULT_MAX_TOTAL;
+        Ppm.Options blockOpt = blockOptions(opt, order, coder, model, policy, maxModelBytes, maxTotal);
+
+        ForkJoinPool pool = pool(opt);
+        try {
+            int window = 2 * pool.getParallelism();
+            ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+            for (int index = 0; ; index++) {
+                Frame frame = Frame.read(din, blockSize);
+                if (frame == null) break;
+                int blockIndex = index;
+                pending.add(pool.submit(() -> frame.decode(blockOpt, blockIndex)));
+                if (pending.size() >= window) out.write(join(pending.poll()));
+            }
+            while (!pending.isEmpty()) out.write(join(pending.poll()));
+            out.flush();
+        } finally {
+            if (pool != ForkJoinPool.commonPool()) pool.shutdown();
+        }
+    }
+
+    // ======= Helpers =======
+
+    private static Ppm.Options blockOptions(Ppm.Options opt, int order, Ppm.CoderType coder, Ppm.ModelType model,
+                                            Ppm.MemoryPolicy policy, long maxModelBytes, int maxTotal) {
+        return new Ppm.Options(order).model(model).coder(coder).maxTotal(maxTotal)
+                .memoryPolicy(policy).maxModelBytes(maxModelBytes).report(opt.report).primer(opt.primer).metrics(opt.metrics);
+    }
+
+    /** Un orden que no cabe en el byte del encabezado se leería como otro y decodificaría basura. */
+    static void checkOrder(int order) {
+        if (order < 0 || order > MAX_ORDER)
+            throw new IllegalArgumentException("Orden fuera de [0, " + MAX_ORDER + "] para el encabezado: " + order);
+    }
+
+    private static <E extends Enum<E>> E readEnum(DataInputStream din, E[] values, String what) throws IOException {
+        int id = din.readUnsignedByte();
+        if (id >= values.length) throw new IOException(what + " desconocido: " + id);
+        return values[id];
+    }
+
+    private static ForkJoinPool pool(Ppm.Options opt) {
+        return (opt.parallelism > 0) ? new ForkJoinPool(opt.parallelism) : ForkJoinPool.commonPool();
+    }
+
+    /** Resultado de un bloque; la IOException que lo tiró sale tal cual, sin la ExecutionException encima. */
+    static <T> T join(Future<T> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrumpido esperando un bloque");
+        } catch (ExecutionException e) {
+            // ForkJoinPool envuelve las excepciones verificadas: buscar la IOException original
+            Throwable c = e.getCause();
+            for (Throwable t = c; t != null; t = t.getCause())
+                if (t instanceof IOException) throw (IOException) t;
+            if (c instanceof RuntimeException) throw (RuntimeException) c;
+            if (c instanceof Error) throw (Error) c;
+            throw new IOException(c);
+        }
+    }
+
+    private static int crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    /** Un bloque comprimido con su largo original y el CRC32 de los datos originales. */
+    static final class Frame {
+        final int rawLength, crc;
+        final byte[] payload;
+
+        Frame(int rawLength, int crc, byte[] payload) {
+            this.rawLength = rawLength; this.crc = crc; this.payload = payload;
+        }
+
+        static Frame encode(byte[] raw, Ppm.Options opt) {
+            return new Frame(raw.length, crc(raw), Ppm.compressBytes(raw, opt));
+        }
+
+        /**
+         * Los largos vienen del stream: el original se acota con el blockSize del encabezado y el
+         * comprimido (que puede pasar del original) se lee por pedazos, así que un largo dañado
+         * termina en IOException y no en un arreglo de 2 GB por cada bloque en vuelo.
+         */
+        static Frame read(DataInputStream din, int blockSize) throws IOException {
+            int rawLength = din.readInt();
+            if (rawLength == END) return null;
+            int compLength = din.readInt();
+            int crc = din.readInt();
+            if (rawLength < 0 || rawLength > blockSize || compLength < 0)
+                throw new IOException("Bloque con largo inválido: " + rawLength + " original, " + compLength + " comprimido");
+            return new Frame(rawLength, crc, readPayload(din, compLength));
+        }
+
+        private static byte[] readPayload(DataInputStream din, int length) throws IOException {
+            byte[] buf = new byte[Math.min(length, READ_CHUNK)];
+            for (int n = 0; ; ) {
+                din.readFully(buf, n, buf.length - n); // un stream truncado falla aquí, antes de crecer más
+                n = buf.length;
+                if (n == length) return buf;
+                buf = Arrays.copyOf(buf, (int) Math.min(length, 2L * n));
+            }
+        }
+
+        void write(DataOutputStream dout) throws IOException {
+            dout.writeInt(rawLength);
+            dout.writeInt(payload.length);
+            dout.writeInt(crc);
+            dout.write(payload);
+        }
+
+        byte[] decode(Ppm.Options opt, int index) throws IOException {
+            // Salida acotada al largo declarado: un bloque dañado no puede decodificar sin fin
+            byte[] raw = new byte[rawLength];
+            OutputStream out = new OutputStream() {
+                int n;
+                @Override public void write(int b) throws IOException {
+                    if (n == raw.length) throw new IOException("Bloque " + index + " dañado: excede su largo");
+                    raw[n++] = (byte) b;
+                }
+                @Override public void write(byte[] b, int off, int len) throws IOException {
+                    // decompressStream escribe por bloques: una revisión y una copia, no un write(int) por byte
+                    if (len > raw.length - n) throw new IOException("Bloque " + index + " dañado: excede su largo");
+                    System.arraycopy(b, off, raw, n, len);
+                    n += len;
+                }
+                @Override public void flush() throws IOException {
+                    if (n != raw.length) throw new IOException("Bloque " + index + " dañado: termina antes de su largo");
+                }
+            };
+            Ppm.decompressStream(new ByteArrayInputStream(payload), out, opt);
+            if (crc(raw) != crc) throw new IOException("Bloque " + index + " dañado: el CRC32 no coincide");
+            return raw;
+        }
+    }
+
+    /** Lee bloques de hasta {@code size} bytes cortados tras el último '\n'; el resto pasa al siguiente. */
+    static final class LineBlocks {
+        private final InputStream in;
+        private final byte[] buf;
+        private int carry;
+        private boolean eof;
+
+        LineBlocks(InputStream in, int size) {
+            this.in = in;
+            this.buf = new byte[size];
+        }
+
+        byte[] next() throws IOException {
+            int n = carry;
+            while (n < buf.length && !eof) {
+                int r = in.read(buf, n, buf.length - n);
+                if (r == -1) eof = true; else n += r;
+            }
+            if (n == 0) return null;
+            int cut = n;
+            if (!eof) {
+                for (int i = n - 1; i >= 0; i--) if (buf[i] == '\n') { cut = i + 1; break; }
+            }
+            byte[] block = Arrays.copyOf(buf, cut);
+            carry = n - cut;
+            System.arraycopy(buf, cut, buf, 0, carry);
+            return block;
+        }
+    }
+
+    // ======= Reporte: tamaño de bloque vs ratio y velocidad =======
+    public static void main(String[] args) throws Exception {
+        String file = (args.length >= 1) ? args[0] : "src/main/resources/winequality-white.csv";
+        int order = (args.length >= 2) ? Integer.parseInt(args[1].trim()) : 3;
+        int repeat = (args.length >= 3) ? Integer.parseInt(args[2].trim()) : 16;
+
+        byte[] one = Files.readAllBytes(Paths.get(file));
+        byte[] input = new byte[one.length * repeat];
+        for (int i = 0; i < repeat; i++) System.arraycopy(one, 0, input, i * one.length, one.length);
+
+        System.out.println("=== Contenedor por bloques ===");
+        System.out.println("Archivo: " + file + " x" + repeat + " (" + input.length + " bytes), orden " + order
+                + ", hilos " + ForkJoinPool.commonPool().getParallelism());
+        System.out.printf("%10s %10s %7s %12s %12s%n", "bloque", "comprimido", "ratio", "comp MB/s", "descomp MB/s");
+        int[] sizes = {0, 1 << 14, 1 << 16, 1 << 18, 1 << 20, 1 << 22};
+        for (int size : sizes) {
+            Ppm.Options opt = new Ppm.Options(order).blockSize(size);
+            byte[] comp = null;
+            long bestC = Long.MAX_VALUE, bestD = Long.MAX_VALUE;
+            for (int it = 0; it < 3; it++) {
+                long t0 = System.nanoTime();
+                comp = Ppm.compressBytes(input, opt);
+                long t1 = System.nanoTime();
+                byte[] back = Ppm.decompressBytes(comp, opt);
+                long t2 = System.nanoTime();
+                if (back.length != input.length) throw new IllegalStateException("Ida y vuelta falló");
+                bestC = Math.min(bestC, t1 - t0);
+                bestD = Math.min(bestD, t2 - t1);
+            }
+            System.out.printf("%10s %10d %7.3f %12.2f %12.2f%n", (size == 0) ? "sin bloques" : String.valueOf(size),
+                    comp.length, comp.length * 1.0 / input.length,
+                    input.length / 1e6 / (bestC / 1e9), input.length / 1e6 / (bestD / 1e9));
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package unam.iimas.ia.ml.ppm;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Contadores de la compresión y descompresión: por orden, cuántas veces el símbolo se encontró
+ * (hit) o hubo escape y cuántos bits costó cada cosa; símbolos procesados, tiempo y tamaño del
+ * modelo a lo largo del stream. Se activa con {@link Ppm.Options#metrics}; sin eso el núcleo no
+ * toca nada de esto.
+ * <p>
+ * Cada stream cuenta en su propio {@link Recorder} (arreglos simples, sin sincronizar) y lo vuelca
+ * aquí cada {@link #FLUSH_EVERY} símbolos y al terminar, así que varios streams en paralelo
+ * (p. ej. los bloques del contenedor) comparten un PpmMetrics sin pelearse por él. Los arreglos
+ * van indexados por orden + 1: la posición 0 es el orden -1 (uniforme).
+ */
+public final class PpmMetrics implements PpmMetricsMXBean {
+    static final int FLUSH_EVERY = 1 << 16;
+    static final int MAX_SAMPLES = 1024;
+
+    private long symbols, streams, nanos;
+    private long[] hits = new long[0], escapes = new long[0];
+    private double[] hitBits = new double[0], escapeBits = new double[0];
+    private long modelNodes, modelBytes;
+    private final ArrayDeque<Sample> samples = new ArrayDeque<>();
+
+    /** Tamaño del modelo de un stream tras {@code symbols} símbolos de ese stream. */
+    public static final class Sample {
+        public final long timeMillis, symbols, modelNodes, modelBytes;
+        Sample(long timeMillis, long symbols, long modelNodes, long modelBytes) {
+            this.timeMillis = timeMillis; this.symbols = symbols; this.modelNodes = modelNodes; this.modelBytes = modelBytes;
+        }
+    }
+
+    /** Copia consistente de todos los contadores. */
+    public static final class Snapshot {
+        public final long symbols, streams, nanos, modelNodes, modelBytes;
+        public final long[] hits, escapes;
+        public final double[] hitBits, escapeBits;
+        public final List<Sample> samples;
+        Snapshot(PpmMetrics m) {
+            symbols = m.symbols; streams = m.streams; nanos = m.nanos; modelNodes = m.modelNodes; modelBytes = m.modelBytes;
+            hits = m.hits.clone(); escapes = m.escapes.clone(); hitBits = m.hitBits.clone(); escapeBits = m.escapeBits.clone();
+            samples = List.copyOf(m.samples);
+        }
+        /** Símbolos por segundo de tiempo de stream (por hilo, si hubo streams en paralelo). */
+        public double symbolsPerSecond() { return (nanos == 0) ? 0 : symbols / (nanos / 1e9); }
+        public double totalBits() {
+            double b = 0;
+            for (int i = 0; i < hitBits.length; i++) b += hitBits[i] + escapeBits[i];
+            return b;
+        }
+        public double bitsPerSymbol() { return (symbols == 0) ? 0 : totalBits() / symbols; }
+
+        @Override public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("símbolos %d en %d streams, %.0f símbolos/s, %.3f bits/símbolo, modelo %d nodos / %d bytes%n",
+                    symbols, streams, symbolsPerSecond(), bitsPerSymbol(), modelNodes, modelBytes));
+            sb.append(String.format("%6s %12s %12s %8s %12s %12s%n", "orden", "hits", "escapes", "% hit", "bits hit", "bits escape"));
+            for (int i = hits.length - 1; i >= 0; i--) {
+                long n = hits[i] + escapes[i];
+                sb.append(String.format("%6d %12d %12d %8.2f %12.0f %12.0f%n", i - 1, hits[i], escapes[i],
+                        (n == 0) ? 0 : 100.0 * hits[i] / n, hitBits[i], escapeBits[i]));
+            }
+            return sb.toString();
+        }
+    }
+
+    public synchronized Snapshot snapshot() { return new Snapshot(this); }
+
+    @Override public synchronized void reset() {
+        symbols = streams = nanos = modelNodes = modelBytes = 0;
+        hits = new long[0]; escapes = new long[0]; hitBits = new double[0]; escapeBits = new double[0];
+        samples.clear();
+    }
+
+    /** Registra este objeto en el MBeanServer de la plataforma como unam.iimas.ia.ml.ppm:type=PpmMetrics,name=... */
+    public ObjectName register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName on = new ObjectName("unam.iimas.ia.ml.ppm:type=PpmMetrics,name=" + ObjectName.quote(name));
+            if (server.isRegistered(on)) server.unregisterMBean(on);
+            server.registerMBean(this, on);
+            return on;
+        } catch (JMException e) {
+            throw new IllegalStateException("No se pudo registrar el MBean " + name, e);
+        }
+    }
+
+    // ---- MXBean ----
+    @Override public synchronized long getSymbols() { return symbols; }
+    @Override public synchronized long getStreams() { return streams; }
+    @Override public double getSymbolsPerSecond() { return snapshot().symbolsPerSecond(); }
+    @Override public double getBitsPerSymbol() { return snapshot().bitsPerSymbol(); }
+    @Override public synchronized long[] getHits() { return hits.clone(); }
+    @Override public synchronized long[] getEscapes() { return escapes.clone(); }
+    @Override public synchronized double[] getHitBits() { return hitBits.clone(); }
+    @Override public synchronized double[] getEscapeBits() { return escapeBits.clone(); }
+    @Override public synchronized long getModelNodes() { return modelNodes; }
+    @Override public synchronized long getModelBytes() { return modelBytes; }
+
+    private synchronized void merge(Recorder r, long nodes, long bytes, boolean end) {
+        int n = r.hits.length;
+        if (hits.length < n) {
+            hits = Arrays.copyOf(hits, n); escapes = Arrays.copyOf(escapes, n);
+            hitBits = Arrays.copyOf(hitBits, n); escapeBits = Arrays.copyOf(escapeBits, n);
+        }
+        for (int i = 0; i < n; i++) {
+            hits[i] += r.hits[i]; escapes[i] += r.escapes[i];
+            hitBits[i] += r.hitCost[i].bits(); escapeBits[i] += r.escCost[i].bits();
+        }
+        symbols += r.pending;
+        long now = System.nanoTime();
+        nanos += now - r.since;
+        if (end) streams++;
+        // Último tamaño visto de cualquier stream; la serie completa queda en samples
+        modelNodes = nodes; modelBytes = bytes;
+        if (samples.size() == MAX_SAMPLES) samples.removeFirst();
+        samples.addLast(new Sample(System.currentTimeMillis(), r.streamSymbols, nodes, bytes));
+    }
+
+    // ======= Contadores de un stream =======
+    /** Lo que lleva un solo stream entre volcados; sólo lo toca el hilo del stream. */
+    static final class Recorder {
+        private final PpmMetrics sink;
+        final long[] hits, escapes;
+        final Ppm.CostEncoder[] hitCost, escCost;
+        long pending, streamSymbols, since;
+
+        Recorder(PpmMetrics sink, int order) {
+            this.sink = sink;
+            int n = order + 2;
+            hits = new long[n]; escapes = new long[n];
+            hitCost = new Ppm.CostEncoder[n]; escCost = new Ppm.CostEncoder[n];
+            for (int i = 0; i < n; i++) { hitCost[i] = new Ppm.CostEncoder(); escCost[i] = new Ppm.CostEncoder(); }
+            since = System.nanoTime();
+        }
+
+        void hit(int k, int freq, int total) { hits[k + 1]++; hitCost[k + 1].add((double) freq / total); }
+
+        void escape(int k, int freq, int total) { escapes[k + 1]++; escCost[k + 1].add((double) freq / total); }
+
+        void symbol(Ppm.ContextModel model) {
+            pending++;
+            if (++streamSymbols % FLUSH_EVERY == 0) flush(model, false);
+        }
+
+        void end(Ppm.ContextModel model) { flush(model, true); }
+
+        private void flush(Ppm.ContextModel model, boolean end) {
+            sink.merge(this, model.nodes(), model.memoryBytes(), end);
+            Arrays.fill(hits, 0); Arrays.fill(escapes, 0);
+            for (int i = 0; i < hits.length; i++) { hitCost[i].reset(); escCost[i].reset(); }
+            pending = 0;
+            since = System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package unam.iimas.ia.ml.ppm;
+
+/** Vista JMX de {@link PpmMetrics}; los arreglos van indexados por orden + 1 (0 = orden -1). */
+public interface PpmMetricsMXBean {
+    long getSymbols();
+    long getStreams();
+    double getSymbolsPerSecond();
+    double getBitsPerSymbol();
+    long[] getHits();
+    long[] getEscapes();
+    double[] getHitBits();
+    double[] getEscapeBits();
+    long getModelNodes();
+    long getModelBytes();
+    void reset();
+}
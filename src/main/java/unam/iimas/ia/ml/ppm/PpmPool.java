@@ -0,0 +1,301 @@
+package unam.iimas.ia.ml.ppm;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compresión de muchos payloads chicos sin rearmar todo en cada llamada. {@link Ppm#compressBytes}
+ * crea por llamada el modelo, un ByteArrayOutputStream, el coder y sus buffers de 64 KB, y para
+ * unos cientos de bytes eso pesa más que codificar. Aquí cada hilo toma un {@link Workspace} del
+ * orden que pide (modelo, buffers de entrada y salida, bits y buffer del coder), lo usa y lo
+ * devuelve; el modelo se vacía con {@code reset()}, que en TRIE conserva sus arreglos.
+ * <p>
+ * La salida es idéntica a la de {@link Ppm#compressBytes} con las mismas opciones, así que lo que
+ * comprime uno lo descomprime el otro. Sólo admite streams simples: sin contenedor por bloques,
+ * modelo de arranque, CSV numérico ni métricas. Se puede usar desde muchos hilos a la vez.
+ * <p>
+ * Lo que el pool guarda libre está acotado dos veces: a lo más {@code maxIdle} workspaces por
+ * orden y a lo más {@code maxIdleBytes} entre todos los órdenes. Al pasar del segundo tope se tiran
+ * los workspaces que llevan más tiempo sin usarse, sean del orden que sean.
+ */
+public final class PpmPool {
+
+    static final int MAX_ORDER = PpmContainer.MAX_ORDER; // el protocolo de PpmServer manda el orden en un byte
+    /** Un modelo que creció más que esto no se guarda: que la memoria del pool no dependa del peor payload. */
+    static final long MAX_IDLE_MODEL_BYTES = 16L << 20;
+    static final int MAX_IDLE_BUFFER = 1 << 20;
+    static final long DEFAULT_MAX_IDLE_BYTES = 4 * MAX_IDLE_MODEL_BYTES;
+
+    private static final byte[] NO_INPUT = new byte[0];
+
+    private final Ppm.Options opt;
+    private final int maxIdle;
+    private final long maxIdleBytes;
+    private final ConcurrentHashMap<Integer, Idle> idle = new ConcurrentHashMap<>();
+    private final AtomicLong idleBytes = new AtomicLong();
+    private final AtomicLong clock = new AtomicLong(); // orden de devolución, para tirar el menos reciente
+
+    /** Workspaces libres de un orden; el más viejo queda a la cabeza de la cola. */
+    private static final class Idle {
+        final ConcurrentLinkedQueue<Workspace> queue = new ConcurrentLinkedQueue<>();
+        final AtomicInteger size = new AtomicInteger();
+    }
+
+    public PpmPool(Ppm.Options opt) {
+        this(opt, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Usa modelo, codificador, maxTotal y presupuesto de memoria de {@code opt}; el orden va en cada
+     * llamada. Guarda a lo más {@code maxIdle} workspaces libres por orden; con más hilos a la vez
+     * se crean de más y los que sobran se tiran al devolverlos.
+     */
+    public PpmPool(Ppm.Options opt, int maxIdle) {
+        this(opt, maxIdle, DEFAULT_MAX_IDLE_BYTES);
+    }
+
+    /**
+     * Como {@link #PpmPool(Ppm.Options, int)} pero además guarda libres a lo más {@code maxIdleBytes}
+     * bytes (modelos y buffers) sumando todos los órdenes; 0 no guarda nada.
+     */
+    public PpmPool(Ppm.Options opt, int maxIdle, long maxIdleBytes) {
+        if (opt.blockSize > 0 || opt.primer != null || opt.numericCsv || opt.metrics != null)
+            throw new IllegalArgumentException("PpmPool sólo admite streams simples: sin bloques, modelo de arranque, CSV numérico ni métricas");
+        if (maxIdle < 0) throw new IllegalArgumentException("maxIdle inválido: " + maxIdle);
+        if (maxIdleBytes < 0) throw new IllegalArgumentException("maxIdleBytes inválido: " + maxIdleBytes);
+        this.opt = opt;
+        this.maxIdle = maxIdle;
+        this.maxIdleBytes = maxIdleBytes;
+        Ppm.newModel(opt); // valida maxTotal contra el codificador desde aquí y no en la primera llamada
+    }
+
+    // ======= API =======
+    public byte[] compress(byte[] input, int order) {
+        try {
+            return compress(input, 0, input.length, order);
+        } catch (IOException e) { throw new RuntimeException(e); } // la salida es un buffer en memoria
+    }
+
+    public byte[] decompress(byte[] input, int order) throws IOException {
+        return decompress(input, 0, input.length, order, Integer.MAX_VALUE - 8);
+    }
+
+    byte[] compress(byte[] input, int off, int len, int order) throws IOException {
+        Workspace ws = acquire(order);
+        boolean ok = false;
+        try {
+            byte[] out = ws.compress(input, off, len);
+            ok = true;
+            return out;
+        } finally {
+            release(ws, ok);
+        }
+    }
+
+    /** Como {@link #decompress(byte[], int)} pero falla si la salida pasa de {@code maxLength} bytes. */
+    byte[] decompress(byte[] input, int off, int len, int order, int maxLength) throws IOException {
+        Workspace ws = acquire(order);
+        boolean ok = false;
+        try {
+            byte[] out = ws.decompress(input, off, len, maxLength);
+            ok = true;
+            return out;
+        } finally {
+            release(ws, ok);
+        }
+    }
+
+    /** Workspaces libres en el pool, sumando todos los órdenes. */
+    public int idle() {
+        int n = 0;
+        for (Idle i : idle.values()) n += i.size.get();
+        return n;
+    }
+
+    /** Bytes que retienen los workspaces libres, sumando todos los órdenes. */
+    public long idleBytes() { return idleBytes.get(); }
+
+    // ======= Pool =======
+    private Workspace acquire(int order) {
+        if (order < 0 || order > MAX_ORDER) throw new IllegalArgumentException("Orden fuera de [0, " + MAX_ORDER + "]: " + order);
+        Idle free = idle.computeIfAbsent(order, k -> new Idle());
+        Workspace ws = free.queue.poll();
+        if (ws == null) return new Workspace(order, free);
+        taken(ws);
+        return ws;
+    }
+
+    /** Un workspace que falló a medias (bits pendientes, modelo a medio actualizar) no se reutiliza. */
+    private void release(Workspace ws, boolean ok) {
+        if (!ok || ws.model.frozen() || ws.modelBytes() > MAX_IDLE_MODEL_BYTES) return;
+        ws.sink.trim(MAX_IDLE_BUFFER);
+        ws.source.reset(NO_INPUT, 0, 0); // no retener el payload del último cliente
+        long bytes = ws.heldBytes();
+        if (bytes > maxIdleBytes) return;
+        if (ws.home.size.incrementAndGet() > maxIdle) { ws.home.size.decrementAndGet(); return; }
+        ws.held = bytes;
+        ws.releasedAt = clock.incrementAndGet();
+        idleBytes.addAndGet(bytes); // antes de ofrecerlo: quien lo saque ya lo encuentra contado
+        ws.home.queue.offer(ws);
+        while (idleBytes.get() > maxIdleBytes && evictOldest()) { }
+    }
+
+    private void taken(Workspace ws) {
+        ws.home.size.decrementAndGet();
+        idleBytes.addAndGet(-ws.held);
+    }
+
+    /**
+     * Tira el workspace libre que lleva más tiempo sin usarse entre todos los órdenes: cada cola
+     * tiene a la cabeza su más viejo, así que basta comparar las cabezas (a lo más 256). Si otro
+     * hilo se lo lleva antes, se tira el que quede a la cabeza de esa cola. Regresa false si no
+     * había nada que tirar.
+     */
+    private boolean evictOldest() {
+        Idle oldest = null;
+        long at = Long.MAX_VALUE;
+        for (Idle i : idle.values()) {
+            Workspace head = i.queue.peek();
+            if (head != null && head.releasedAt < at) { at = head.releasedAt; oldest = i; }
+        }
+        if (oldest == null) return false;
+        Workspace ws = oldest.queue.poll();
+        if (ws != null) taken(ws);
+        return true;
+    }
+
+    // ======= Workspace =======
+    /** Todo lo que una compresión o descompresión de un orden necesita, para reutilizarlo. */
+    final class Workspace {
+        final Ppm.Options wopt;
+        final Idle home;
+        final Ppm.ContextModel model;
+        final Sink sink = new Sink();
+        final Source source = new Source();
+        final Ppm.BitOutput bitOut = new Ppm.BitOutput(sink);
+        final Ppm.BitInput bitIn = new Ppm.BitInput(source);
+        private byte[] coderBuf; // sólo RANGE
+        private boolean used;
+        long held, releasedAt; // mientras está libre: bytes contados en idleBytes y cuándo se devolvió
+
+        Workspace(int order, Idle home) {
+            this.wopt = new Ppm.Options(order).model(opt.model).coder(opt.coder).maxTotal(opt.maxTotal)
+                    .memoryPolicy(opt.memoryPolicy).maxModelBytes(opt.maxModelBytes).report(opt.report);
+            this.home = home;
+            this.model = Ppm.newModel(wopt);
+        }
+
+        private void begin() {
+            if (used) model.reset();
+            used = true;
+            sink.reset();
+        }
+
+        /** En TRIE y OFFHEAP reset() conserva arreglos y buffers: cuenta su capacidad, no lo que usó el último payload. */
+        long modelBytes() {
+            if (model instanceof OffHeapModel) return ((OffHeapModel) model).retainedBytes();
+            if (!(model instanceof Ppm.TrieModel)) return model.memoryBytes();
+            Ppm.TrieModel t = (Ppm.TrieModel) model;
+            return (long) t.sym.length * Ppm.TrieModel.NODE_BYTES + 4L * t.pool.length;
+        }
+
+        long heldBytes() {
+            return modelBytes() + sink.capacity() + ((coderBuf == null) ? 0 : coderBuf.length);
+        }
+
+        private byte[] coderBuf() {
+            if (coderBuf == null) coderBuf = new byte[1 << 16];
+            return coderBuf;
+        }
+
+        byte[] compress(byte[] in, int off, int len) throws IOException {
+            begin();
+            Ppm.Context ctx = new Ppm.Context(wopt.order);
+            Ppm.MemoryBudget budget = new Ppm.MemoryBudget(wopt);
+            Ppm.SymbolEncoder enc = (wopt.coder == Ppm.CoderType.RANGE)
+                    ? new Ppm.RangeEncoder(sink, coderBuf()) : new Ppm.ArithmeticEncoder(bitOut);
+            for (int i = off, end = off + len; i < end; i++) {
+                int b = in[i] & 0xFF;
+                Ppm.encodeSymbol(enc, model, ctx, b);
+                model.update(ctx, b);
+                ctx.push(b);
+                budget.check(model);
+            }
+            Ppm.encodeSymbol(enc, model, ctx, Ppm.EOF);
+            enc.finish();
+            budget.report();
+            return sink.toByteArray();
+        }
+
+        byte[] decompress(byte[] in, int off, int len, int maxLength) throws IOException {
+            begin();
+            source.reset(in, off, len);
+            bitIn.reset();
+            Ppm.Context ctx = new Ppm.Context(wopt.order);
+            Ppm.MemoryBudget budget = new Ppm.MemoryBudget(wopt);
+            Ppm.SymbolDecoder dec = (wopt.coder == Ppm.CoderType.RANGE)
+                    ? new Ppm.RangeDecoder(source, coderBuf()) : new Ppm.ArithmeticDecoder(bitIn);
+            while (true) {
+                int sym = Ppm.decodeSymbol(dec, model, ctx);
+                if (sym == Ppm.EOF) break;
+                // Un payload dañado puede decodificar basura sin fin: acotar la salida
+                if (sink.size() == maxLength) throw new IOException("La salida pasa de " + maxLength + " bytes");
+                sink.put(sym);
+                model.update(ctx, sym);
+                ctx.push(sym);
+                budget.check(model);
+            }
+            budget.report();
+            return sink.toByteArray();
+        }
+    }
+
+    /** Salida en un byte[] que crece y se reutiliza; a diferencia de ByteArrayOutputStream no sincroniza. */
+    static final class Sink extends OutputStream {
+        private byte[] buf = new byte[1 << 10];
+        private int n;
+
+        void reset() { n = 0; }
+        int size() { return n; }
+        int capacity() { return buf.length; }
+        void trim(int max) { if (buf.length > max) buf = new byte[1 << 10]; n = 0; }
+        byte[] toByteArray() { return Arrays.copyOf(buf, n); }
+
+        void put(int b) {
+            if (n == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+            buf[n++] = (byte) b;
+        }
+
+        @Override public void write(int b) { put(b); }
+
+        @Override public void write(byte[] b, int off, int len) {
+            if (n + len > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, n + len));
+            System.arraycopy(b, off, buf, n, len);
+            n += len;
+        }
+    }
+
+    /** Entrada sobre un pedazo de byte[] que se puede volver a apuntar. */
+    static final class Source extends InputStream {
+        private byte[] buf = new byte[0];
+        private int pos, end;
+
+        void reset(byte[] b, int off, int len) { buf = b; pos = off; end = off + len; }
+
+        @Override public int read() { return (pos < end) ? buf[pos++] & 0xFF : -1; }
+
+        @Override public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (pos == end) return -1;
+            int k = Math.min(len, end - pos);
+            System.arraycopy(buf, pos, b, off, k);
+            pos += k;
+            return k;
+        }
+    }
+}
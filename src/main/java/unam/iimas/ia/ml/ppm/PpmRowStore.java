@@ -0,0 +1,318 @@
+package unam.iimas.ia.ml.ppm;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * CSV comprimido con acceso aleatorio por renglón. Los renglones se agrupan de a
+ * {@code rowsPerGroup} y cada grupo se comprime por separado (con modelo vacío o con el mismo
+ * {@link PrimedModel} para todos); al final va un índice con la primera fila y el offset de cada
+ * grupo. {@link #readRows} busca en el índice y descomprime sólo los grupos que tocan el rango, así
+ * que leer unas cuantas filas cuesta lo mismo sin importar el tamaño del archivo.
+ *
+ * <pre>
+ * encabezado: "PPMR" | versión (1 byte) | orden (1 byte) | codificador (1 byte) | modelo (1 byte)
+ *             | maxTotal (int) | filas por grupo (int) | nodos del modelo de arranque (int, 0 = sin él)
+ * grupos:     un bloque de {@link PpmContainer} por grupo: largo original (int) | largo comprimido (int)
+ *             | CRC32 del original (int) | datos
+ * índice:     por grupo: primera fila (long) | offset del bloque (long)
+ * cola:       grupos (int) | filas (long) | offset del índice (long) | "PPMR"
+ * </pre>
+ * Las filas son las líneas del archivo tal cual, desde 0 (el encabezado del CSV es la fila 0) y sin
+ * el '\n'. Como con {@link Ppm.Options#primer}, quien lee tiene que pasar el mismo modelo de
+ * arranque; el archivo sólo guarda su número de nodos para detectar una confusión obvia.
+ */
+public final class PpmRowStore {
+
+    static final int MAGIC = 0x50504D52; // "PPMR"
+    static final int VERSION = 1;
+    static final int HEADER = 4 + 1 + 1 + 1 + 1 + 4 + 4 + 4;
+    static final int ENTRY = 8 + 8;
+    static final int TRAILER = 4 + 8 + 8 + 4;
+    public static final int DEFAULT_ROWS_PER_GROUP = 1024;
+
+    private PpmRowStore() {}
+
+    // ======= Escritura =======
+    public static long write(Path csv, Path out, Ppm.Options opt) throws IOException {
+        return write(csv, out, DEFAULT_ROWS_PER_GROUP, opt);
+    }
+
+    /**
+     * Comprime {@code csv} en grupos de {@code rowsPerGroup} filas; los grupos se comprimen en
+     * paralelo (ver {@link Ppm.Options#parallelism}) con a lo más dos por hilo en vuelo. Usa orden,
+     * modelo, codificador, maxTotal y modelo de arranque de {@code opt}. Regresa las filas escritas.
+     */
+    public static long write(Path csv, Path out, int rowsPerGroup, Ppm.Options opt) throws IOException {
+        if (rowsPerGroup <= 0) throw new IllegalArgumentException("Filas por grupo inválidas: " + rowsPerGroup);
+        PpmContainer.checkOrder(opt.order); // antes de abrir (y truncar) la salida
+        Ppm.Options groupOpt = groupOptions(opt, opt.order, opt.coder, opt.model, opt.maxTotal, opt.primer);
+        List<long[]> index = new ArrayList<>();
+        long rows = 0;
+        ForkJoinPool pool = (opt.parallelism > 0) ? new ForkJoinPool(opt.parallelism) : ForkJoinPool.commonPool();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(csv), Ppm.IO_CHUNK);
+             Counting cout = new Counting(new BufferedOutputStream(Files.newOutputStream(out), 1 << 16))) {
+            DataOutputStream dout = new DataOutputStream(cout);
+            dout.writeInt(MAGIC);
+            dout.writeByte(VERSION);
+            dout.writeByte(opt.order);
+            dout.writeByte(opt.coder.ordinal());
+            dout.writeByte(opt.model.ordinal());
+            dout.writeInt(opt.maxTotal);
+            dout.writeInt(rowsPerGroup);
+            dout.writeInt((opt.primer == null) ? 0 : opt.primer.size);
+
+            int window = 2 * pool.getParallelism();
+            ArrayDeque<Future<PpmContainer.Frame>> pending = new ArrayDeque<>();
+            ArrayDeque<long[]> unplaced = new ArrayDeque<>(); // entradas del índice de los grupos en vuelo
+            RowGroups groups = new RowGroups(in, rowsPerGroup);
+            for (byte[] raw; (raw = groups.next()) != null; ) {
+                byte[] group = raw;
+                long[] entry = { rows, 0 };
+                index.add(entry);
+                unplaced.add(entry);
+                rows += groups.lines();
+                pending.add(pool.submit(() -> PpmContainer.Frame.encode(group, groupOpt)));
+                if (pending.size() >= window) writeFrame(pending.poll(), unplaced.poll(), dout, cout);
+            }
+            while (!pending.isEmpty()) writeFrame(pending.poll(), unplaced.poll(), dout, cout);
+
+            dout.flush();
+            long indexOffset = cout.count;
+            for (long[] e : index) { dout.writeLong(e[0]); dout.writeLong(e[1]); }
+            dout.writeInt(index.size());
+            dout.writeLong(rows);
+            dout.writeLong(indexOffset);
+            dout.writeInt(MAGIC);
+            dout.flush();
+        } finally {
+            if (pool != ForkJoinPool.commonPool()) pool.shutdown();
+        }
+        return rows;
+    }
+
+    /** Escribe el siguiente bloque en orden y anota su offset en su entrada del índice. */
+    private static void writeFrame(Future<PpmContainer.Frame> f, long[] entry, DataOutputStream dout, Counting cout)
+            throws IOException {
+        PpmContainer.Frame frame = PpmContainer.join(f);
+        dout.flush();
+        entry[1] = cout.count;
+        frame.write(dout);
+    }
+
+    // ======= Lectura =======
+    /** Filas [{@code from}, {@code to}) de un archivo escrito sin modelo de arranque. */
+    public static List<String> readRows(Path file, long from, long to) throws IOException {
+        return readRows(file, from, to, null);
+    }
+
+    public static List<String> readRows(Path file, long from, long to, PrimedModel primer) throws IOException {
+        try (Reader r = open(file, primer)) { return r.readRows(from, to); }
+    }
+
+    public static Reader open(Path file, PrimedModel primer) throws IOException {
+        return new Reader(file, primer);
+    }
+
+    /**
+     * Archivo abierto para varias lecturas: guarda el encabezado y la cola; el índice se consulta
+     * en el archivo con búsqueda binaria, sin cargarlo.
+     */
+    public static final class Reader implements Closeable {
+        private final FileChannel ch;
+        private final Ppm.Options opt;
+        private final int groups;
+        private final long rows, indexOffset;
+
+        Reader(Path file, PrimedModel primer) throws IOException {
+            ch = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                ByteBuffer h = read(0, HEADER);
+                if (h.getInt() != MAGIC) throw new IOException("No es un archivo PPMR: " + file);
+                int version = h.get() & 0xFF;
+                if (version != VERSION) throw new IOException("Versión PPMR no soportada: " + version);
+                int order = h.get() & 0xFF;
+                Ppm.CoderType coder = enumAt(Ppm.CoderType.values(), h.get() & 0xFF, "Codificador");
+                Ppm.ModelType model = enumAt(Ppm.ModelType.values(), h.get() & 0xFF, "Modelo");
+                int maxTotal = h.getInt();
+                h.getInt(); // filas por grupo: informativo, el índice trae la primera fila de cada grupo
+                int primerNodes = h.getInt();
+                if (primerNodes != 0 && (primer == null || primer.size != primerNodes || primer.order != order))
+                    throw new IOException("El archivo se escribió con un modelo de arranque de orden " + order
+                            + " y " + primerNodes + " nodos; hay que pasar ese mismo modelo");
+                if (primerNodes == 0 && primer != null)
+                    throw new IOException("El archivo se escribió sin modelo de arranque");
+                opt = groupOptions(new Ppm.Options(order), order, coder, model, maxTotal, primer);
+
+                ByteBuffer t = read(ch.size() - TRAILER, TRAILER);
+                groups = t.getInt();
+                rows = t.getLong();
+                indexOffset = t.getLong();
+                if (t.getInt() != MAGIC || groups < 0 || indexOffset + (long) groups * ENTRY != ch.size() - TRAILER)
+                    throw new IOException("Cola PPMR dañada: " + file);
+            } catch (IOException | RuntimeException e) {
+                ch.close();
+                throw e;
+            }
+        }
+
+        public long rows() { return rows; }
+
+        public int groups() { return groups; }
+
+        /** Filas [{@code from}, {@code to}); {@code to} se recorta al total de filas. */
+        public List<String> readRows(long from, long to) throws IOException {
+            to = Math.min(to, rows);
+            if (from < 0 || from > to) throw new IndexOutOfBoundsException("Rango inválido: " + from + ".." + to);
+            List<String> out = new ArrayList<>((int) Math.min(to - from, 1 << 20));
+            if (from == to) return out;
+            for (int g = groupOf(from); g < groups; g++) {
+                long first = firstRow(g);
+                if (first >= to) break;
+                byte[] raw = group(g);
+                long row = first;
+                for (int start = 0; start < raw.length && row < to; row++) {
+                    int end = start;
+                    while (end < raw.length && raw[end] != '\n') end++;
+                    if (row >= from) out.add(new String(raw, start, end - start, StandardCharsets.UTF_8));
+                    start = end + 1;
+                }
+            }
+            return out;
+        }
+
+        /** Bytes originales del grupo {@code g}, verificados con su CRC32. */
+        byte[] group(int g) throws IOException {
+            long off = entry(g).getLong(8);
+            ByteBuffer fh = read(off, 12);
+            int rawLength = fh.getInt(), compLength = fh.getInt(), crc = fh.getInt();
+            if (rawLength < 0 || compLength < 0 || off + 12 + compLength > indexOffset)
+                throw new IOException("Grupo " + g + " con largo inválido");
+            ByteBuffer payload = read(off + 12, compLength);
+            return new PpmContainer.Frame(rawLength, crc, payload.array()).decode(opt, g);
+        }
+
+        /** Último grupo cuya primera fila es <= row. */
+        private int groupOf(long row) throws IOException {
+            int lo = 0, hi = groups - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (firstRow(mid) <= row) lo = mid; else hi = mid - 1;
+            }
+            return lo;
+        }
+
+        private long firstRow(int g) throws IOException { return entry(g).getLong(0); }
+
+        private ByteBuffer entry(int g) throws IOException { return read(indexOffset + (long) g * ENTRY, ENTRY); }
+
+        private ByteBuffer read(long pos, int len) throws IOException {
+            ByteBuffer b = ByteBuffer.allocate(len);
+            while (b.hasRemaining()) {
+                if (ch.read(b, pos + b.position()) < 0) throw new EOFException("Archivo PPMR truncado");
+            }
+            return b.flip();
+        }
+
+        @Override public void close() throws IOException { ch.close(); }
+    }
+
+    // ======= Helpers =======
+    private static Ppm.Options groupOptions(Ppm.Options base, int order, Ppm.CoderType coder, Ppm.ModelType model,
+                                            int maxTotal, PrimedModel primer) {
+        return new Ppm.Options(order).coder(coder).model(model).maxTotal(maxTotal).primer(primer)
+                .report(base.report).metrics(base.metrics);
+    }
+
+    private static <E extends Enum<E>> E enumAt(E[] values, int id, String what) throws IOException {
+        if (id >= values.length) throw new IOException(what + " desconocido: " + id);
+        return values[id];
+    }
+
+    /** Cuenta los bytes que pasan para saber el offset de cada grupo. */
+    private static final class Counting extends OutputStream {
+        private final OutputStream out;
+        long count;
+        Counting(OutputStream out) { this.out = out; }
+        @Override public void write(int b) throws IOException { out.write(b); count++; }
+        @Override public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); count += len; }
+        @Override public void flush() throws IOException { out.flush(); }
+        @Override public void close() throws IOException { out.close(); }
+    }
+
+    /** Corta la entrada tras cada {@code n} '\n'; el último grupo puede quedar sin '\n' final. */
+    static final class RowGroups {
+        private final InputStream in;
+        private final int n;
+        private final byte[] buf = new byte[Ppm.IO_CHUNK];
+        private int pos, lim, lines;
+        private boolean eof;
+
+        RowGroups(InputStream in, int n) { this.in = in; this.n = n; }
+
+        /** Líneas del último grupo devuelto. */
+        int lines() { return lines; }
+
+        byte[] next() throws IOException {
+            byte[] group = new byte[Ppm.IO_CHUNK];
+            int size = 0;
+            lines = 0;
+            while (lines < n) {
+                if (pos == lim) {
+                    if (eof || (lim = in.read(buf, 0, buf.length)) <= 0) { eof = true; lim = pos = 0; break; }
+                    pos = 0;
+                }
+                int start = pos;
+                while (pos < lim && lines < n) if (buf[pos++] == '\n') lines++;
+                int len = pos - start;
+                if (size + len > group.length) group = Arrays.copyOf(group, Math.max(size + len, group.length * 2));
+                System.arraycopy(buf, start, group, size, len);
+                size += len;
+            }
+            if (size == 0) return null;
+            if (lines < n && group[size - 1] != '\n') lines++; // última línea sin '\n'
+            return Arrays.copyOf(group, size);
+        }
+    }
+
+    // ======= CLI =======
+    public static void main(String[] args) throws Exception {
+        // pack <csv> <salida.ppmr> [filas por grupo] [orden]  |  rows <archivo.ppmr> <desde> <hasta>
+        if (args.length >= 3 && args[0].equals("pack")) {
+            int perGroup = (args.length >= 4) ? Integer.parseInt(args[3].trim()) : DEFAULT_ROWS_PER_GROUP;
+            int order = (args.length >= 5) ? Integer.parseInt(args[4].trim()) : 3;
+            long t0 = System.nanoTime();
+            long rows = write(Paths.get(args[1]), Paths.get(args[2]), perGroup, new Ppm.Options(order));
+            System.out.printf("%d filas en grupos de %d: %d -> %d bytes, %.1f ms%n", rows, perGroup,
+                    Files.size(Paths.get(args[1])), Files.size(Paths.get(args[2])), (System.nanoTime() - t0) / 1e6);
+        } else if (args.length >= 4 && args[0].equals("rows")) {
+            long t0 = System.nanoTime();
+            List<String> rows = readRows(Paths.get(args[1]), Long.parseLong(args[2].trim()), Long.parseLong(args[3].trim()));
+            double ms = (System.nanoTime() - t0) / 1e6;
+            for (String r : rows) System.out.println(r);
+            System.err.printf("%d filas en %.2f ms%n", rows.size(), ms);
+        } else {
+            System.err.println("Uso: PpmRowStore pack <csv> <salida.ppmr> [filas por grupo] [orden]");
+            System.err.println("     PpmRowStore rows <archivo.ppmr> <desde> <hasta>");
+            System.exit(1);
+        }
+    }
+}
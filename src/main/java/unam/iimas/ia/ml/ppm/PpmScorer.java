@@ -0,0 +1,250 @@
+package unam.iimas.ia.ml.ppm;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Costo en bits de renglones sueltos bajo un modelo entrenado, p. ej. un modelo por etiqueta
+ * para clasificar por compresión o para detectar renglones raros. Cada renglón se mide como si
+ * se comprimiera arrancando del modelo base ({@link Ppm.Options#primer}) sin copiarlo: las
+ * cuentas y los contextos nuevos del renglón van a un {@link Fork}, una capa chica encima de la
+ * base que se vacía entre renglones. La base nunca cambia, así que un mismo PpmScorer se usa
+ * desde varios hilos a la vez; cada hilo tiene su propio Fork.
+ */
+public final class PpmScorer {
+
+    private final PrimedModel base;
+    private final ThreadLocal<Fork> forks;
+
+    public PpmScorer(PrimedModel base) {
+        this.base = base;
+        this.forks = ThreadLocal.withInitial(() -> new Fork(base));
+    }
+
+    public PrimedModel base() { return base; }
+
+    // ======= Costo por renglón =======
+    /** Bits de {@code row} bajo el modelo base, contando escapes y sin el EOF. */
+    public double bits(byte[] row) { return bits(row, 0, row.length); }
+
+    public double bits(byte[] row, int off, int len) { return forks.get().bits(row, off, len, false); }
+
+    /** Como {@link #bits} más el EOF: coincide con {@code Ppm.estimateCompressedBits(row, primer)}. */
+    double bitsWithEof(byte[] row) { return forks.get().bits(row, 0, row.length, true); }
+
+    /** Bits de cada renglón, en paralelo sobre los renglones. */
+    public double[] bits(List<byte[]> rows) {
+        double[] out = new double[rows.size()];
+        IntStream.range(0, out.length).parallel().forEach(i -> out[i] = bits(rows.get(i)));
+        return out;
+    }
+
+    /** Matriz renglón × modelo en paralelo sobre ambos ejes. */
+    public static double[][] bits(PpmScorer[] models, List<byte[]> rows) {
+        int m = models.length;
+        double[][] out = new double[rows.size()][m];
+        IntStream.range(0, rows.size() * m).parallel()
+                .forEach(i -> out[i / m][i % m] = models[i % m].bits(rows.get(i / m)));
+        return out;
+    }
+
+    /** Índice del modelo que comprime mejor cada renglón (menos bits). */
+    public static int[] classify(PpmScorer[] models, List<byte[]> rows) {
+        double[][] cost = bits(models, rows);
+        int[] best = new int[cost.length];
+        for (int r = 0; r < cost.length; r++)
+            for (int j = 1; j < models.length; j++) if (cost[r][j] < cost[r][best[r]]) best[r] = j;
+        return best;
+    }
+
+    // ======= Capa sobre la base =======
+    /**
+     * Nodos con id {@code < base.size} son de la base y sus cuentas son base + delta; los nodos
+     * nuevos llevan ids a partir de {@code base.size} y viven sólo aquí. Reproduce paso a paso
+     * encodeSymbol + update de {@link Ppm.TrieModel} (incluido el modo congelado) con el contexto
+     * vacío al inicio de cada renglón. Vaciarla cuesta O(1): los mapas usan una marca de generación.
+     */
+    static final class Fork {
+        private static final int NIL = Ppm.TrieModel.NIL, ROOT = Ppm.TrieModel.ROOT;
+        private final PrimedModel base;
+        private final int order, baseSize;
+        private final int[] chain;
+        private final Ppm.CostEncoder cost = new Ppm.CostEncoder();
+        private final OverlayMap links = new OverlayMap();  // (padre, símbolo) -> nodo nuevo
+        private final OverlayMap counts = new OverlayMap(); // nodo -> frecuencia (nodos nuevos: absoluta)
+        private final OverlayMap totals = new OverlayMap(); // nodo -> total (nodos nuevos: absoluto)
+        private int next, depth;
+
+        Fork(PrimedModel base) {
+            this.base = base;
+            this.order = base.order;
+            this.baseSize = base.size;
+            this.chain = new int[order + 1];
+        }
+
+        double bits(byte[] row, int off, int len, boolean eof) {
+            links.clear(); counts.clear(); totals.clear();
+            next = baseSize; depth = 0; chain[0] = ROOT;
+            cost.reset();
+            for (int i = off; i < off + len; i++) {
+                int s = row[i] & 0xFF;
+                cost.add(probability(s));
+                if (base.frozen) updateFrozen(s); else update(s);
+            }
+            if (eof) cost.add(probability(Ppm.EOF));
+            return cost.bits();
+        }
+
+        /** Probabilidad del símbolo con el orden más alto disponible y escapes (frecuencia 1) hacia abajo. */
+        private double probability(int s) {
+            double q = 1.0 / (Ppm.ALPHABET_SIZE + 1);
+            for (int k = 0; k <= depth; k++) {
+                int node = chain[k];
+                int t = total(node);
+                if (t == 0) continue; // contexto sin símbolos: igual que ausente
+                int c = (s < Ppm.ALPHABET_SIZE) ? child(node, s) : NIL;
+                q = (c != NIL) ? (double) count(c) / (t + 1) : q / (t + 1);
+            }
+            return q;
+        }
+
+        private void update(int s) {
+            for (int d = depth; d >= 0; d--) {
+                int node = chain[d], c = child(node, s);
+                if (c == NIL) { c = next++; links.put(key(node, s), c); }
+                counts.add(c, 1); totals.add(node, 1);
+                if (d < order) chain[d + 1] = c;
+            }
+            if (depth < order) depth++;
+        }
+
+        private void updateFrozen(int s) {
+            for (int d = depth; d >= 0; d--) {
+                int node = chain[d], c = (node == NIL) ? NIL : child(node, s);
+                if (c != NIL) { counts.add(c, 1); totals.add(node, 1); }
+                if (d < order) chain[d + 1] = c;
+            }
+            int j = 0, max = Math.min(depth + 1, order);
+            while (j < max && chain[j + 1] != NIL) j++;
+            depth = j;
+        }
+
+        private int child(int node, int s) {
+            if (node < baseSize) {
+                int c = base.findChild(node, s);
+                if (c != NIL) return c;
+            }
+            return links.get(key(node, s), NIL);
+        }
+
+        private int count(int c) { return ((c < baseSize) ? base.count[c] : 0) + counts.get(c, 0); }
+
+        private int total(int node) { return ((node < baseSize) ? base.total[node] : 0) + totals.get(node, 0); }
+
+        private static long key(int node, int s) { return ((long) node << 8) | s; }
+    }
+
+    /** Mapa long -> int de direccionamiento abierto; clear() sólo avanza la generación. */
+    static final class OverlayMap {
+        private long[] keys = new long[256];
+        private int[] vals = new int[256], gens = new int[256];
+        private int gen = 1, size;
+
+        void clear() {
+            size = 0;
+            if (++gen == 0) { Arrays.fill(gens, 0); gen = 1; }
+        }
+
+        int get(long k, int missing) {
+            int mask = keys.length - 1;
+            for (int i = slot(k, mask); gens[i] == gen; i = (i + 1) & mask)
+                if (keys[i] == k) return vals[i];
+            return missing;
+        }
+
+        void put(long k, int v) {
+            int i = find(k);
+            vals[i] = v;
+        }
+
+        void add(long k, int d) {
+            int i = find(k);
+            vals[i] += d;
+        }
+
+        /** Slot de k, creándolo en 0 si no está. */
+        private int find(long k) {
+            int mask = keys.length - 1;
+            int i = slot(k, mask);
+            for (; gens[i] == gen; i = (i + 1) & mask) if (keys[i] == k) return i;
+            if (2 * (size + 1) > keys.length) { grow(); return find(k); }
+            gens[i] = gen; keys[i] = k; vals[i] = 0; size++;
+            return i;
+        }
+
+        private void grow() {
+            long[] ok = keys; int[] ov = vals, og = gens; int oldGen = gen;
+            keys = new long[ok.length << 1]; vals = new int[ok.length << 1]; gens = new int[ok.length << 1];
+            gen = 1; size = 0;
+            for (int i = 0; i < ok.length; i++) if (og[i] == oldGen) vals[find(ok[i])] = ov[i];
+        }
+
+        private static int slot(long k, int mask) { return (int) ((k * Ppm.Context.MUL) >>> 40) & mask; }
+    }
+
+    // ======= Reporte: clasificador por compresión sobre winequality =======
+    /**
+     * Entrena un modelo por etiqueta (última columna) con la primera parte de los renglones, mide
+     * cada renglón restante contra todos y reporta exactitud y renglones por segundo.
+     */
+    public static void main(String[] args) throws IOException {
+        String file = (args.length >= 1) ? args[0] : "src/main/resources/winequality-white.csv";
+        int order = (args.length >= 2) ? Integer.parseInt(args[1].trim()) : 3;
+        int percentTrain = (args.length >= 3) ? Integer.parseInt(args[2].trim()) : 80;
+
+        List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+        List<String> rows = new ArrayList<>(lines.subList(1, lines.size()));
+        Collections.shuffle(rows, new Random(42));
+        int nTrain = (int) Math.round(rows.size() * (percentTrain / 100.0));
+
+        // Un modelo por etiqueta; al renglón se le quita la etiqueta para no regalar la respuesta
+        TreeMap<String, ByteArrayOutputStream> byLabel = new TreeMap<>();
+        for (String r : rows.subList(0, nTrain))
+            byLabel.computeIfAbsent(label(r), k -> new ByteArrayOutputStream()).writeBytes(features(r));
+        String[] labels = byLabel.keySet().toArray(new String[0]);
+        PpmScorer[] models = new PpmScorer[labels.length];
+        for (int j = 0; j < labels.length; j++)
+            models[j] = new PpmScorer(PrimedModel.train(new ByteArrayInputStream(byLabel.get(labels[j]).toByteArray()), order));
+
+        List<byte[]> test = new ArrayList<>();
+        List<String> truth = new ArrayList<>();
+        for (String r : rows.subList(nTrain, rows.size())) { test.add(features(r)); truth.add(label(r)); }
+
+        System.out.println("=== Clasificación por compresión ===");
+        System.out.println("Archivo: " + file + ", orden " + order + ", " + nTrain + " renglones de entrenamiento, "
+                + test.size() + " de prueba, " + labels.length + " modelos " + Arrays.toString(labels));
+        int[] pred = null;
+        long best = Long.MAX_VALUE;
+        for (int it = 0; it < 10; it++) {
+            long t0 = System.nanoTime();
+            pred = classify(models, test);
+            best = Math.min(best, System.nanoTime() - t0);
+        }
+        int hits = 0;
+        for (int i = 0; i < pred.length; i++) if (labels[pred[i]].equals(truth.get(i))) hits++;
+        System.out.printf("Exactitud: %.3f%n", hits * 1.0 / pred.length);
+        System.out.printf("Renglones/s: %.0f (%d modelos cada uno; %.0f evaluaciones renglón×modelo/s)%n",
+                test.size() / (best / 1e9), labels.length, test.size() * labels.length / (best / 1e9));
+    }
+
+    private static String label(String row) { return row.substring(row.lastIndexOf(';') + 1).trim(); }
+
+    private static byte[] features(String row) {
+        return (row.substring(0, row.lastIndexOf(';') + 1) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
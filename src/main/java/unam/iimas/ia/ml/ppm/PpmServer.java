@@ -0,0 +1,267 @@
+package unam.iimas.ia.ml.ppm;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Servidor local de compresión: un proceso que se queda vivo (JIT caliente) y atiende
+ * compresiones y descompresiones por TCP en loopback o por un socket Unix, con los modelos y
+ * buffers de un {@link PpmPool}. Cada conexión corre en su propio hilo virtual y atiende sus
+ * peticiones en orden; el cliente puede mandar varias sin esperar (ver {@link PpmClient#compressAll})
+ * y las respuestas de todo lo que llegó junto salen en una sola escritura.
+ *
+ * <pre>
+ * petición:  operación (1 byte: 'C', 'D' o 'S') | orden (1 byte) | largo (int) | datos
+ * respuesta: estado (1 byte: 0 = bien, 1 = error) | largo (int) | datos o mensaje de error (UTF-8)
+ * </pre>
+ * 'S' regresa en texto las cuentas y la latencia (p50, p99) medida en el servidor: desde que la
+ * petición terminó de llegar hasta que su respuesta quedó escrita. Un largo fuera de
+ * [0, {@link #MAX_PAYLOAD}] recibe un error y cierra la conexión; cualquier otro error sólo
+ * falla esa petición.
+ * <pre>
+ * java -cp ppm.jar unam.iimas.ia.ml.ppm.PpmServer [--port n | --unix ruta] [--model TRIE|HASH|OFFHEAP]
+ *      [--coder ARITH|RANGE]
+ * </pre>
+ */
+public final class PpmServer implements Closeable {
+
+    static final int COMPRESS = 'C', DECOMPRESS = 'D', STATS = 'S';
+    static final int OK = 0, ERROR = 1;
+    static final int MAX_PAYLOAD = 64 << 20;
+    public static final int DEFAULT_PORT = 7390;
+
+    private final ServerSocketChannel server;
+    private final SocketAddress address;
+    private final PpmPool pool;
+    private final ExecutorService connections;
+    private final Set<SocketChannel> open = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+    private final Latency latency = new Latency();
+    private final LongAdder requests = new LongAdder(), errors = new LongAdder(), bytesIn = new LongAdder(), bytesOut = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * Empieza a escuchar en {@code address}: un {@link InetSocketAddress} (puerto 0 = cualquiera
+     * libre, ver {@link #address()}) o un {@link UnixDomainSocketAddress}, cuyo archivo se borra
+     * al cerrar. Usa modelo, codificador y maxTotal de {@code opt}; el orden va en cada petición.
+     */
+    public PpmServer(SocketAddress address, Ppm.Options opt) throws IOException {
+        this.pool = new PpmPool(opt);
+        this.server = (address instanceof UnixDomainSocketAddress)
+                ? ServerSocketChannel.open(StandardProtocolFamily.UNIX) : ServerSocketChannel.open();
+        server.bind(address);
+        this.address = server.getLocalAddress();
+        this.connections = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ppm-conn-", 0).factory());
+        this.acceptor = Thread.ofPlatform().name("ppm-accept").daemon().start(this::acceptLoop);
+    }
+
+    public SocketAddress address() { return address; }
+
+    public Latency latency() { return latency; }
+
+    public long requests() { return requests.sum(); }
+
+    @Override public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        server.close();
+        try {
+            acceptor.join(); // después de esto no entran conexiones nuevas a open
+            for (SocketChannel ch : open) ch.close();
+            connections.shutdown();
+            connections.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (address instanceof UnixDomainSocketAddress) Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+    }
+
+    /** Cuentas y latencia en una línea. */
+    public String stats() {
+        return String.format("peticiones %d, errores %d, entrada %d bytes, salida %d bytes, libres %d workspaces (%d bytes), %s",
+                requests.sum(), errors.sum(), bytesIn.sum(), bytesOut.sum(), pool.idle(), pool.idleBytes(), latency);
+    }
+
+    // ======= Conexiones =======
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                SocketChannel ch = server.accept();
+                if (ch.getRemoteAddress() instanceof InetSocketAddress) ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                open.add(ch);
+                connections.execute(() -> serve(ch));
+            } catch (IOException e) {
+                if (!closed) System.err.println("PpmServer: error aceptando conexión: " + e.getMessage());
+            }
+        }
+    }
+
+    private void serve(SocketChannel ch) {
+        try (ch;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), 1 << 16));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16))) {
+            for (int op; (op = in.read()) != -1; ) {
+                int order = in.readUnsignedByte();
+                int len = in.readInt();
+                if (len < 0 || len > MAX_PAYLOAD) {
+                    errors.increment();
+                    respond(out, ERROR, ("Largo inválido: " + len).getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                    return;
+                }
+                byte[] payload = new byte[len];
+                in.readFully(payload);
+                long t0 = System.nanoTime();
+                handle(op, order, payload, out);
+                latency.record(System.nanoTime() - t0);
+                // Lote: si el cliente ya mandó más peticiones, sus respuestas salen juntas
+                if (in.available() == 0) out.flush();
+            }
+        } catch (EOFException e) {
+            // el cliente cerró a media petición
+        } catch (IOException e) {
+            if (!closed) System.err.println("PpmServer: conexión cerrada: " + e.getMessage());
+        } finally {
+            open.remove(ch);
+        }
+    }
+
+    private void handle(int op, int order, byte[] payload, DataOutputStream out) throws IOException {
+        requests.increment();
+        bytesIn.add(payload.length);
+        byte[] result;
+        try {
+            switch (op) {
+                case COMPRESS: result = pool.compress(payload, 0, payload.length, order); break;
+                case DECOMPRESS: result = pool.decompress(payload, 0, payload.length, order, MAX_PAYLOAD); break;
+                case STATS: result = stats().getBytes(StandardCharsets.UTF_8); break;
+                default: throw new IllegalArgumentException("Operación desconocida: " + op);
+            }
+        } catch (IOException | RuntimeException e) {
+            errors.increment();
+            respond(out, ERROR, String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        bytesOut.add(result.length);
+        respond(out, OK, result);
+    }
+
+    private static void respond(DataOutputStream out, int status, byte[] data) throws IOException {
+        out.writeByte(status);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    // ======= Latencia =======
+    /**
+     * Histograma de latencias sin candados: 32 cubetas por potencia de 2 (error relativo < 3%),
+     * desde 1 ns hasta ~18 min; lo que pasa de ahí cae en la última cubeta.
+     */
+    public static final class Latency {
+        static final int SUB_BITS = 5, SUB = 1 << SUB_BITS, MAX_EXP = 40;
+        private final AtomicLongArray counts = new AtomicLongArray((MAX_EXP - SUB_BITS + 2) * SUB);
+        private final LongAdder total = new LongAdder();
+
+        public void record(long nanos) {
+            counts.incrementAndGet(bucket(Math.max(0, nanos)));
+            total.increment();
+        }
+
+        public long count() { return total.sum(); }
+
+        /** Latencia en nanosegundos bajo la que queda la fracción {@code q} (0..1) de las muestras. */
+        public long percentile(double q) {
+            long n = 0;
+            for (int i = 0; i < counts.length(); i++) n += counts.get(i);
+            if (n == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * n)), seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) return middle(i);
+            }
+            return middle(counts.length() - 1);
+        }
+
+        public void reset() {
+            for (int i = 0; i < counts.length(); i++) counts.set(i, 0);
+            total.reset();
+        }
+
+        static int bucket(long v) {
+            if (v < SUB) return (int) v;
+            int exp = Math.min(63 - Long.numberOfLeadingZeros(v), MAX_EXP);
+            int sub = (exp == MAX_EXP && v >= (2L << MAX_EXP)) ? SUB - 1 : (int) (v >>> (exp - SUB_BITS)) & (SUB - 1);
+            return (exp - SUB_BITS + 1) * SUB + sub;
+        }
+
+        /** Punto medio de la cubeta {@code i}. */
+        static long middle(int i) {
+            if (i < SUB) return i;
+            int exp = i / SUB + SUB_BITS - 1, sub = i % SUB;
+            long width = 1L << (exp - SUB_BITS);
+            return (1L << exp) + sub * width + width / 2;
+        }
+
+        @Override public String toString() {
+            return String.format("p50 %.1f µs, p99 %.1f µs, p99.9 %.1f µs (%d muestras)",
+                    percentile(0.50) / 1e3, percentile(0.99) / 1e3, percentile(0.999) / 1e3, count());
+        }
+    }
+
+    // ======= Servidor en línea de comandos =======
+    public static void main(String[] args) throws Exception {
+        SocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), DEFAULT_PORT);
+        Ppm.Options opt = new Ppm.Options(3);
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port": address = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[++i])); break;
+                case "--unix": address = UnixDomainSocketAddress.of(args[++i]); break;
+                case "--model": opt.model(Ppm.ModelType.valueOf(args[++i])); break;
+                case "--coder": opt.coder(Ppm.CoderType.valueOf(args[++i])); break;
+                default: throw new IllegalArgumentException("Argumento desconocido: " + args[i]);
+            }
+        }
+        if (address instanceof UnixDomainSocketAddress) {
+            Path path = ((UnixDomainSocketAddress) address).getPath();
+            if (Files.exists(path)) throw new IOException("Ya existe " + path + "; bórrelo si no hay otro servidor usándolo");
+        }
+        PpmServer server = new PpmServer(address, opt);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) { System.err.println("PpmServer: " + e.getMessage()); }
+            System.out.println("PpmServer: " + server.stats());
+        }));
+        System.out.println("PpmServer escuchando en " + server.address() + " (" + opt.model + ", " + opt.coder + ")");
+        long last = 0;
+        while (true) {
+            Thread.sleep(10_000);
+            long now = server.requests();
+            if (now != last) System.out.println("PpmServer: " + server.stats());
+            last = now;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package unam.iimas.ia.ml.ppm;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Modelo entrenado de antemano para arrancar la compresión con contextos ya vistos, p. ej.
+ * entrenar con TRN_ y comprimir TST_ o muchos registros chicos con el mismo modelo tibio. Es una
+ * foto inmutable de un {@link Ppm.TrieModel}; cada compresión o descompresión que lo usa vía
+ * {@link Ppm.Options#primer} parte de una copia propia y el contexto empieza vacío. Quien
+ * descomprime tiene que usar exactamente el mismo modelo: el stream no lo identifica.
+ *
+ * <pre>
+ * archivo: "PPMM" | versión (1 byte) | congelado (1 byte) | orden (int) | nodos (int) | pool (int)
+ *          | sym (short x nodos) | count, total, child, sibling, vine, degree, dense (int x nodos)
+ *          | pool (int x pool) | CRC32 de todo lo anterior (int)
+ * </pre>
+ * Todo en big endian; {@link #load} mapea el archivo y copia cada arreglo de un jalón.
+ */
+public final class PrimedModel {
+
+    static final int MAGIC = 0x50504D4D; // "PPMM"
+    static final int VERSION = 1;
+    private static final int HEADER = 4 + 1 + 1 + 4 + 4 + 4;
+
+    final int order;
+    final boolean frozen;
+    final int size, poolSize;
+    final short[] sym;
+    final int[] count, total, child, sibling, vine, degree, dense, pool;
+
+    private PrimedModel(int order, boolean frozen, int size, int poolSize, short[] sym, int[] count, int[] total,
+                        int[] child, int[] sibling, int[] vine, int[] degree, int[] dense, int[] pool) {
+        this.order = order; this.frozen = frozen; this.size = size; this.poolSize = poolSize;
+        this.sym = sym; this.count = count; this.total = total; this.child = child; this.sibling = sibling;
+        this.vine = vine; this.degree = degree; this.dense = dense; this.pool = pool;
+    }
+
+    // ======= Entrenamiento =======
+    public static PrimedModel train(Path file, int order) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) { return train(in, order); }
+    }
+
+    /** Pasa la entrada por un modelo de orden {@code order} (sólo actualiza, no codifica) y lo fotografía. */
+    public static PrimedModel train(InputStream in, int order) throws IOException {
+        Ppm.TrieModel model = new Ppm.TrieModel(order);
+        Ppm.Context ctx = new Ppm.Context(order);
+        byte[] buf = new byte[Ppm.IO_CHUNK];
+        for (int n; (n = in.read(buf, 0, buf.length)) != -1; ) {
+            for (int i = 0; i < n; i++) {
+                int b = buf[i] & 0xFF;
+                model.update(ctx, b);
+                ctx.push(b);
+            }
+        }
+        return of(model);
+    }
+
+    /** Foto de un modelo vivo; recorta los arreglos a lo usado. */
+    static PrimedModel of(Ppm.TrieModel m) {
+        int n = m.size;
+        return new PrimedModel(m.order, m.frozen, n, m.poolSize, Arrays.copyOf(m.sym, n), Arrays.copyOf(m.count, n),
+                Arrays.copyOf(m.total, n), Arrays.copyOf(m.child, n), Arrays.copyOf(m.sibling, n),
+                Arrays.copyOf(m.vine, n), Arrays.copyOf(m.degree, n), Arrays.copyOf(m.dense, n),
+                Arrays.copyOf(m.pool, m.poolSize));
+    }
+
+    /** El mismo modelo pero congelado: al usarlo sigue contando lo existente y no crea contextos nuevos. */
+    public PrimedModel frozen() {
+        return frozen ? this : new PrimedModel(order, true, size, poolSize, sym, count, total, child, sibling,
+                vine, degree, dense, pool);
+    }
+
+    public int order() { return order; }
+
+    public boolean isFrozen() { return frozen; }
+
+    /** Misma estimación que {@link Ppm.ContextModel#memoryBytes()}. */
+    public long memoryBytes() { return (long) size * Ppm.TrieModel.NODE_BYTES + 4L * poolSize; }
+
+    /** Hijo de {@code node} con símbolo {@code s}, o NIL; igual que en {@link Ppm.TrieModel}. */
+    int findChild(int node, int s) {
+        if (dense[node] != Ppm.TrieModel.NIL) return pool[dense[node] + Ppm.ALPHABET_SIZE + s];
+        for (int c = child[node]; c != Ppm.TrieModel.NIL && sym[c] <= s; c = sibling[c])
+            if (sym[c] == s) return c;
+        return Ppm.TrieModel.NIL;
+    }
+
+    /** Copia de trabajo para una compresión; la foto no cambia. */
+    Ppm.TrieModel newModel(int maxTotal) {
+        return new Ppm.TrieModel(this, maxTotal);
+    }
+
+    // ======= Serialización =======
+    public void save(Path file) throws IOException {
+        long bytes = HEADER + 2L * size + 4L * 7 * size + 4L * poolSize + 4;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            buf.putInt(MAGIC).put((byte) VERSION).put((byte) (frozen ? 1 : 0))
+                    .putInt(order).putInt(size).putInt(poolSize);
+            buf.asShortBuffer().put(sym, 0, size);
+            buf.position(buf.position() + 2 * size);
+            for (int[] a : new int[][]{count, total, child, sibling, vine, degree, dense}) {
+                buf.asIntBuffer().put(a, 0, size);
+                buf.position(buf.position() + 4 * size);
+            }
+            buf.asIntBuffer().put(pool, 0, poolSize);
+            buf.position(buf.position() + 4 * poolSize);
+            buf.putInt(crc(buf, buf.position()));
+            buf.force();
+        }
+    }
+
+    public static PrimedModel load(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long len = ch.size();
+            if (len < HEADER + 4 || len > Integer.MAX_VALUE) throw new IOException("No es un modelo PPMM: " + file);
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, len);
+            if (buf.getInt() != MAGIC) throw new IOException("No es un modelo PPMM: " + file);
+            int version = buf.get() & 0xFF;
+            if (version != VERSION) throw new IOException("Versión de modelo no soportada: " + version);
+            boolean frozen = buf.get() != 0;
+            int order = buf.getInt(), size = buf.getInt(), poolSize = buf.getInt();
+            if (size < 1 || poolSize < 0 || len != HEADER + 2L * size + 28L * size + 4L * poolSize + 4)
+                throw new IOException("Modelo PPMM truncado o dañado: " + file);
+            if (buf.getInt((int) len - 4) != crc(buf, (int) len - 4))
+                throw new IOException("Modelo PPMM dañado: el CRC32 no coincide");
+
+            short[] sym = new short[size];
+            buf.asShortBuffer().get(sym);
+            buf.position(buf.position() + 2 * size);
+            int[][] fields = new int[7][];
+            for (int f = 0; f < 7; f++) {
+                fields[f] = new int[size];
+                buf.asIntBuffer().get(fields[f]);
+                buf.position(buf.position() + 4 * size);
+            }
+            int[] pool = new int[poolSize];
+            buf.asIntBuffer().get(pool);
+            return new PrimedModel(order, frozen, size, poolSize, sym, fields[0], fields[1], fields[2], fields[3],
+                    fields[4], fields[5], fields[6], pool);
+        }
+    }
+
+    private static int crc(ByteBuffer buf, int end) {
+        CRC32 crc = new CRC32();
+        crc.update(buf.duplicate().position(0).limit(end));
+        return (int) crc.getValue();
+    }
+}
@@ -3,82 +3,479 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
 
+/**
+ * Divide un CSV en entrenamiento/prueba (TRN_ y TST_) o en k particiones, leyendo por renglones
+ * con memoria acotada: nunca se cargan todos los renglones. El encabezado se quita.
+ * <ul>
+ *   <li>Con semilla, cada renglón se asigna con un hash del número de renglón y la semilla: la
+ *       mezcla es reproducible y se hace en una sola pasada.</li>
+ *   <li>Sin semilla se toma el orden del archivo (los primeros renglones a TRN_); para saber
+ *       cuántos son se hace antes una pasada que sólo cuenta renglones.</li>
+ *   <li>Estratificar por una columna (nombre o índice) mantiene la proporción dentro de cada
+ *       valor de la columna con error de a lo más un renglón por valor.</li>
+ * </ul>
+ * Los renglones van a un {@link RowSink}; {@link #split(Path, Path, Options)} escribe los archivos
+ * de salida, cada uno en su propio hilo.
+ */
 public class SplitDataset {
 
     // ====== Config por defecto (puedes ajustarlos) ======
-    private static final String DEFAULT_FILE_NAME = "winequality-red.csv"; // archivo en ~/Downloads
+    private static final String DEFAULT_FILE_NAME = "winequality-red.csv"; // archivo en src/main/resources
     private static final int DEFAULT_PERCENT_TRAIN = 50;         // 0..100
     private static final boolean SHUFFLE = false;                // true para mezclar antes de dividir
+    private static final long DEFAULT_SEED = 42;                 // semilla si SHUFFLE
+    static final int BATCH = 1 << 16;                            // bytes por lote hacia cada escritor
+
+    /** Cómo dividir. Sin {@link #folds} se divide en entrenamiento/prueba según {@link #percentTrain}. */
+    public static final class Options {
+        int percentTrain = DEFAULT_PERCENT_TRAIN;
+        Long seed = SHUFFLE ? DEFAULT_SEED : null; // null = orden del archivo
+        String stratify;   // columna: nombre del encabezado o índice desde 0
+        int folds;         // > 1: k particiones
+        byte delimiter = ';';
+        public Options percentTrain(int percentTrain) { this.percentTrain = percentTrain; return this; }
+        public Options shuffle(long seed) { this.seed = seed; return this; }
+        public Options stratify(String column) { this.stratify = column; return this; }
+        public Options folds(int folds) { this.folds = folds; return this; }
+        public Options delimiter(char delimiter) { this.delimiter = (byte) delimiter; return this; }
+
+        /** Número de particiones: 2 (0 = entrenamiento, 1 = prueba) o k. */
+        public int partitions() { return (folds > 1) ? folds : 2; }
+    }
+
+    /**
+     * Recibe cada renglón (sin fin de línea) con su partición. Se llama desde un solo hilo y el
+     * arreglo sólo es válido durante la llamada.
+     */
+    public interface RowSink {
+        void row(int partition, byte[] buf, int off, int len) throws IOException;
+        /** Cada renglón crudo del archivo, encabezado y fin de línea incluidos, antes de {@link #row}. */
+        default void line(byte[] buf, int off, int len) throws IOException {}
+        default void close() throws IOException {}
+    }
 
     public static void main(String[] args) {
         try {
-            // 1) Resolver rutas
-            String userHome = System.getProperty("user.home");
-            Path downloads = Paths.get("src"+ File.separator + "main" + File.separator + "resources");
-
-            // Nombre de archivo y % de entrenamiento (opcionales por CLI)
-            String inputFileName = (args.length >= 1) ? args[0] :  DEFAULT_FILE_NAME;
-            int percentTrain = (args.length >= 2) ? parsePercent(args[1]) : DEFAULT_PERCENT_TRAIN;
+            // Parámetros por CLI: <archivo> <porcentaje> [--shuffle semilla] [--stratify columna] [--folds k]
+            Options opt = new Options();
+            List<String> positional = new ArrayList<>();
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--shuffle": opt.shuffle(Long.parseLong(args[++i].trim())); break;
+                    case "--stratify": opt.stratify(args[++i]); break;
+                    case "--folds": opt.folds(Integer.parseInt(args[++i].trim())); break;
+                    default: positional.add(args[i]);
+                }
+            }
+            String inputFileName = (positional.size() >= 1) ? positional.get(0) : DEFAULT_FILE_NAME;
+            if (positional.size() >= 2) opt.percentTrain(parsePercent(positional.get(1)));
 
-            Path inputPath = Paths.get("src"+ File.separator + "main" + File.separator + "resources" + File.separator + DEFAULT_FILE_NAME);
+            Path dir = Paths.get("src" + File.separator + "main" + File.separator + "resources");
+            Path inputPath = dir.resolve(inputFileName);
 
             if (!Files.exists(inputPath) || !Files.isRegularFile(inputPath)) {
                 System.err.println("No se encontró el archivo: " + inputPath.toAbsolutePath());
                 System.exit(1);
             }
-            if (percentTrain < 0 || percentTrain > 100) {
+            if (opt.percentTrain < 0 || opt.percentTrain > 100) {
                 System.err.println("El porcentaje debe estar entre 0 y 100");
                 System.exit(1);
             }
 
-            // 2) Leer todas las líneas (UTF-8)
-            List<String> all = Files.readAllLines(inputPath, StandardCharsets.UTF_8);
-            if (all.isEmpty()) {
-                System.err.println("El archivo está vacío: " + inputPath.toAbsolutePath());
-                System.exit(1);
+            Result r = split(inputPath, dir, opt);
+
+            System.out.println("Archivo original : " + inputPath.toAbsolutePath());
+            System.out.println("Encabezado       : \"" + r.header + "\" (removido)");
+            System.out.println("Total sin header : " + r.rows + " renglones");
+            if (opt.folds > 1) {
+                System.out.println("Particiones      : " + opt.folds + ((opt.stratify != null) ? " (estratificadas por " + opt.stratify + ")" : ""));
+                for (int f = 0; f < opt.folds; f++)
+                    System.out.println("→ Fold " + f + " (" + r.counts[f] + "): " + r.files.get(2 * f + 1).toAbsolutePath());
+            } else {
+                System.out.println("Porcentaje train : " + opt.percentTrain + "%"
+                        + ((opt.stratify != null) ? " (estratificado por " + opt.stratify + ")" : ""));
+                System.out.println("→ Train (" + r.counts[0] + "): " + r.files.get(0).toAbsolutePath());
+                System.out.println("→ Test  (" + r.counts[1] + "): " + r.files.get(1).toAbsolutePath());
+            }
+
+        } catch (IOException e) {
+            System.err.println("Error de E/S: " + e.getMessage());
+            System.exit(2);
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(3);
+        }
+    }
+
+    // ======= API =======
+    /** Encabezado quitado, renglones por partición y archivos escritos. */
+    public static final class Result {
+        public final String header;
+        public final long rows;
+        public final long[] counts;
+        public final List<Path> files;
+        Result(String header, long[] counts, List<Path> files) {
+            this.header = header; this.counts = counts; this.files = files;
+            long n = 0;
+            for (long c : counts) n += c;
+            this.rows = n;
+        }
+    }
+
+    /**
+     * Escribe TRN_/TST_ (o, con k particiones, TRN_k{i}_/TST_k{i}_ por partición i) en {@code outDir}.
+     * Cada archivo de salida tiene su hilo escritor y una cola acotada de lotes.
+     */
+    public static Result split(Path input, Path outDir, Options opt) throws IOException {
+        String name = input.getFileName().toString();
+        List<Path> files = new ArrayList<>();
+        if (opt.folds > 1) {
+            for (int f = 0; f < opt.folds; f++) {
+                files.add(outDir.resolve("TRN_k" + f + "_" + name));
+                files.add(outDir.resolve("TST_k" + f + "_" + name));
+            }
+        } else {
+            files.add(outDir.resolve("TRN_" + name));
+            files.add(outDir.resolve("TST_" + name));
+        }
+        try (ConcurrentSink sink = ConcurrentSink.files(files, opt.folds > 1)) {
+            return split(input, opt, sink, files);
+        }
+    }
+
+    /** Recorre {@code input} una vez (dos sin semilla) y entrega cada renglón a {@code sink}. */
+    public static Result split(Path input, Options opt, RowSink sink) throws IOException {
+        return split(input, opt, sink, Collections.emptyList());
+    }
+
+    private static Result split(Path input, Options opt, RowSink sink, List<Path> files) throws IOException {
+        Assigner assigner = new Assigner(opt);
+        if (opt.seed == null) {
+            // Sin mezcla: contar primero cuántos renglones hay (por estrato) para cortar en orden
+            try (LineReader lines = new LineReader(Files.newInputStream(input))) {
+                assigner.header(lines.next() ? lines.string() : "");
+                while (lines.next()) assigner.count(lines);
+            }
+        }
+        String header;
+        try (LineReader lines = new LineReader(Files.newInputStream(input))) {
+            header = "";
+            if (lines.next()) {
+                header = lines.string();
+                sink.line(lines.buf, lines.off, lines.raw);
+            }
+            if (opt.seed != null) assigner.header(header);
+            while (lines.next()) {
+                sink.line(lines.buf, lines.off, lines.raw);
+                sink.row(assigner.assign(lines), lines.buf, lines.off, lines.len);
             }
+        }
+        sink.close();
+        return new Result(header, assigner.counts, files);
+    }
 
-            // 3) Quitar encabezado (primera línea)
-            String header = all.get(0); // por si lo necesitas
-            List<String> rows = new ArrayList<>(all.subList(1, all.size())); // sin encabezado
+    // ======= Asignación de renglones =======
+    /**
+     * Decide la partición de cada renglón. Por estrato lleva cuántos renglones vio y cuántos
+     * mandó a entrenamiento: con semilla, el hash propone y si la proporción se saldría de
+     * [piso, techo] de lo esperado se corrige; en k particiones cada bloque de k renglones de un
+     * estrato recibe una permutación de 0..k-1.
+     */
+    static final class Assigner {
+        private final Options opt;
+        private final int k;
+        private final double p;
+        private int column = -1;
+        private final Map<String, Stratum> strata = new HashMap<>();
+        private final Stratum all = new Stratum();
+        final long[] counts;
+        private long index;
 
-            // 4) (Opcional) Mezclar filas antes de dividir
-            if (SHUFFLE) {
-                Collections.shuffle(rows, new Random(42)); // semilla fija para reproducibilidad
+        static final class Stratum { long seen, train, total; int[] perm; }
+
+        Assigner(Options opt) {
+            this.opt = opt;
+            this.k = opt.partitions();
+            this.p = opt.percentTrain / 100.0;
+            this.counts = new long[k];
+        }
+
+        void header(String header) {
+            if (opt.stratify == null || column >= 0) return;
+            String[] names = header.split(Pattern.quote(String.valueOf((char) opt.delimiter)), -1);
+            for (int i = 0; i < names.length; i++)
+                if (names[i].trim().replace("\"", "").equals(opt.stratify)) column = i;
+            if (column < 0) {
+                try { column = Integer.parseInt(opt.stratify.trim()); }
+                catch (NumberFormatException e) { throw new IllegalArgumentException("No existe la columna: " + opt.stratify); }
             }
+        }
 
-            int total = rows.size();
-            int nTrain = (int) Math.round(total * (percentTrain / 100.0));
-            int nTest  = total - nTrain;
+        void count(LineReader line) { stratum(line).total++; }
 
-            // 5) Armar nombres de salida con prefijos TRN_ y TST_
-            String baseName = baseName(inputFileName);
-            String ext = extension(inputFileName);
-            String trainName = "TRN_" + baseName + ext;
-            String testName  = "TST_" + baseName + ext;
+        int assign(LineReader line) {
+            Stratum s = stratum(line);
+            int part = (k == 2) ? trainTest(s) : fold(s);
+            s.seen++;
+            if (part == 0 && k == 2) s.train++;
+            counts[part]++;
+            index++;
+            return part;
+        }
 
-            Path trainPath = downloads.resolve(trainName);
-            Path testPath  = downloads.resolve(testName);
+        private int trainTest(Stratum s) {
+            if (opt.seed == null) return (s.seen < Math.round(s.total * p)) ? 0 : 1;
+            boolean train = uniform(index) < p;
+            double expected = (s.seen + 1) * p;
+            if (train && s.train + 1 > Math.ceil(expected)) train = false;
+            if (!train && s.train < Math.floor(expected)) train = true;
+            return train ? 0 : 1;
+        }
 
-            // 6) Escribir archivos (sin encabezado, tal como pediste)
-            writeLines(trainPath, rows.subList(0, nTrain));
-            writeLines(testPath,  rows.subList(nTrain, total));
+        private int fold(Stratum s) {
+            if (opt.seed == null) return (int) (s.seen * k / Math.max(1, s.total));
+            int pos = (int) (s.seen % k);
+            if (pos == 0) {
+                if (s.perm == null) s.perm = new int[k];
+                for (int i = 0; i < k; i++) s.perm[i] = i;
+                for (int i = k - 1; i > 0; i--) { // Fisher-Yates con el hash del renglón
+                    int j = (int) (uniform(index + ((long) i << 40)) * (i + 1));
+                    int t = s.perm[i]; s.perm[i] = s.perm[j]; s.perm[j] = t;
+                }
+            }
+            return s.perm[pos];
+        }
 
-            // 7) Reporte
-            System.out.println("Archivo original : " + inputPath.toAbsolutePath());
-            System.out.println("Encabezado       : \"" + header + "\" (removido)");
-            System.out.println("Total sin header : " + total + " renglones");
-            System.out.println("Porcentaje train : " + percentTrain + "%");
-            System.out.println("→ Train (" + nTrain + "): " + trainPath.toAbsolutePath());
-            System.out.println("→ Test  (" + nTest  + "): " + testPath.toAbsolutePath());
+        private Stratum stratum(LineReader line) {
+            if (column < 0) return all;
+            return strata.computeIfAbsent(line.field(column, opt.delimiter), key -> new Stratum());
+        }
 
-        } catch (IOException e) {
-            System.err.println("Error de E/S: " + e.getMessage());
-            System.exit(2);
-        } catch (Exception e) {
-            System.err.println("Error: " + e.getMessage());
-            System.exit(3);
+        /** splitmix64 de (semilla, i) a [0, 1). */
+        private double uniform(long i) {
+            long z = opt.seed + (i + 1) * 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            z ^= z >>> 31;
+            return (z >>> 11) * 0x1p-53;
+        }
+    }
+
+    // ======= Lectura por renglones =======
+    /**
+     * Renglones de un stream sin copiarlos: buf[off..off+len) sin '\n' ni '\r' final;
+     * buf[off..off+raw) es el renglón tal cual venía en el archivo.
+     */
+    static final class LineReader implements Closeable {
+        private final InputStream in;
+        byte[] buf = new byte[1 << 20];
+        int off, len, raw;
+        private int pos, lim;
+        private boolean eof;
+
+        LineReader(InputStream in) { this.in = in; }
+
+        boolean next() throws IOException {
+            while (true) {
+                for (int i = pos; i < lim; i++) {
+                    if (buf[i] == '\n') { take(i, i + 1); return true; }
+                }
+                if (eof) {
+                    if (pos == lim) return false;
+                    take(lim, lim); // último renglón sin '\n'
+                    return true;
+                }
+                fill();
+            }
+        }
+
+        private void take(int end, int nextPos) {
+            off = pos;
+            len = end - pos;
+            raw = nextPos - pos;
+            if (len > 0 && buf[off + len - 1] == '\r') len--;
+            pos = nextPos;
+        }
+
+        private void fill() throws IOException {
+            if (pos > 0) { System.arraycopy(buf, pos, buf, 0, lim - pos); lim -= pos; pos = 0; }
+            if (lim == buf.length) buf = Arrays.copyOf(buf, buf.length << 1); // renglón más largo que el buffer
+            int r = in.read(buf, lim, buf.length - lim);
+            if (r == -1) eof = true; else lim += r;
+        }
+
+        String string() { return new String(buf, off, len, StandardCharsets.UTF_8); }
+
+        /** Campo {@code column} del renglón actual, sin comillas ni espacios. */
+        String field(int column, byte delimiter) {
+            int start = off, end = off + len;
+            for (int c = 0; c < column && start <= end; c++) {
+                while (start < end && buf[start] != delimiter) start++;
+                start++;
+            }
+            if (start > end) return "";
+            int stop = start;
+            while (stop < end && buf[stop] != delimiter) stop++;
+            return new String(buf, start, stop - start, StandardCharsets.UTF_8).trim().replace("\"", "");
+        }
+
+        @Override public void close() throws IOException { in.close(); }
+    }
+
+    // ======= Consumo concurrente =======
+    /**
+     * Un hilo por destino. Los renglones se juntan en lotes de {@link #BATCH} bytes y cada destino
+     * tiene una cola de a lo más 4 lotes, así la memoria no depende del tamaño del archivo; el
+     * destino ve sus renglones (terminados en '\n') como un InputStream. Con k particiones, el
+     * renglón de la partición f va a TST_k{f} (destino 2f+1) y a todos los TRN_k{j} (2j), j != f.
+     * Un destino opcional {@code raw} recibe el archivo tal cual, encabezado incluido.
+     */
+    public static final class ConcurrentSink implements RowSink, AutoCloseable {
+        /** Lo que corre en el hilo de un destino: consume todo el stream y regresa. */
+        public interface Target { void consume(InputStream rows) throws IOException; }
+
+        private static final byte[] END = new byte[0];
+        private final boolean folds;
+        private final int rawIndex;
+        private final List<BlockingQueue<byte[]>> queues = new ArrayList<>();
+        private final byte[][] pending;
+        private final int[] used;
+        private final ExecutorService pool;
+        private final List<Future<?>> workers = new ArrayList<>();
+        private boolean closed;
+
+        public ConcurrentSink(List<Target> partitions, boolean folds, Target raw) {
+            List<Target> all = new ArrayList<>(partitions);
+            if (raw != null) all.add(raw);
+            this.folds = folds;
+            this.rawIndex = (raw != null) ? partitions.size() : -1;
+            this.pending = new byte[all.size()][BATCH];
+            this.used = new int[all.size()];
+            this.pool = Executors.newFixedThreadPool(all.size());
+            for (Target t : all) {
+                BlockingQueue<byte[]> q = new ArrayBlockingQueue<>(4);
+                queues.add(q);
+                workers.add(pool.submit(() -> {
+                    QueueInput in = new QueueInput(q);
+                    t.consume(in);
+                    in.drain(); // si el destino no leyó todo, que el lector no se quede esperando
+                    return null;
+                }));
+            }
+        }
+
+        /** Destinos que copian cada uno a su archivo. */
+        static ConcurrentSink files(List<Path> files, boolean folds) {
+            List<Target> targets = new ArrayList<>();
+            for (Path f : files) targets.add(in -> {
+                try (OutputStream out = Files.newOutputStream(f)) { in.transferTo(out); }
+            });
+            return new ConcurrentSink(targets, folds, null);
+        }
+
+        @Override public void line(byte[] buf, int off, int len) throws IOException {
+            if (rawIndex >= 0) append(rawIndex, buf, off, len, false);
+        }
+
+        @Override public void row(int partition, byte[] buf, int off, int len) throws IOException {
+            if (!folds) { append(partition, buf, off, len, true); return; }
+            int k = (rawIndex >= 0 ? rawIndex : pending.length) / 2;
+            for (int f = 0; f < k; f++) append(2 * f + ((f == partition) ? 1 : 0), buf, off, len, true);
+        }
+
+        private void append(int out, byte[] buf, int off, int len, boolean newline) throws IOException {
+            int n = len + (newline ? 1 : 0);
+            if (used[out] + n > BATCH) flush(out);
+            if (n > BATCH) { // renglón enorme: va solo
+                byte[] big = Arrays.copyOfRange(buf, off, off + n);
+                if (newline) big[len] = '\n';
+                put(out, big);
+                return;
+            }
+            System.arraycopy(buf, off, pending[out], used[out], len);
+            used[out] += len;
+            if (newline) pending[out][used[out]++] = '\n';
+        }
+
+        private void flush(int out) throws IOException {
+            if (used[out] == 0) return;
+            put(out, Arrays.copyOf(pending[out], used[out]));
+            used[out] = 0;
+        }
+
+        private void put(int out, byte[] b) throws IOException {
+            try {
+                while (!queues.get(out).offer(b, 100, TimeUnit.MILLISECONDS)) {
+                    Future<?> w = workers.get(out);
+                    if (w.isDone()) join(w); // el destino murió: propagar su error
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrumpido escribiendo");
+            }
+        }
+
+        @Override public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                for (int i = 0; i < pending.length; i++) { flush(i); put(i, END); }
+                for (Future<?> w : workers) join(w);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        private static void join(Future<?> f) throws IOException {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrumpido esperando un destino");
+            } catch (ExecutionException e) {
+                Throwable c = e.getCause();
+                if (c instanceof IOException) throw (IOException) c;
+                if (c instanceof RuntimeException) throw (RuntimeException) c;
+                throw new IOException(c);
+            }
+        }
+
+        /** Los lotes de una cola como InputStream; END marca el fin. */
+        static final class QueueInput extends InputStream {
+            private final BlockingQueue<byte[]> q;
+            private byte[] cur = new byte[0];
+            private int pos;
+            private boolean eof;
+
+            QueueInput(BlockingQueue<byte[]> q) { this.q = q; }
+
+            private boolean ensure() throws IOException {
+                while (pos == cur.length && !eof) {
+                    try { cur = q.take(); } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrumpido leyendo renglones");
+                    }
+                    pos = 0;
+                    if (cur == END) eof = true;
+                }
+                return !eof;
+            }
+
+            @Override public int read() throws IOException { return ensure() ? cur[pos++] & 0xFF : -1; }
+
+            @Override public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                if (!ensure()) return -1;
+                int n = Math.min(len, cur.length - pos);
+                System.arraycopy(cur, pos, b, off, n);
+                pos += n;
+                return n;
+            }
+
+            void drain() throws IOException { while (ensure()) pos = cur.length; }
         }
     }
 
@@ -91,19 +488,4 @@ public class SplitDataset {
             throw new IllegalArgumentException("Porcentaje inválido: " + s);
         }
     }
-
-    private static void writeLines(Path path, List<String> lines) throws IOException {
-        Files.write(path, lines, StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
-    }
-
-    private static String baseName(String fileName) {
-        int dot = fileName.lastIndexOf('.');
-        return (dot > 0) ? fileName.substring(0, dot) : fileName;
-    }
-
-    private static String extension(String fileName) {
-        int dot = fileName.lastIndexOf('.');
-        return (dot > 0) ? fileName.substring(dot) : ""; // incluye el punto
-    }
 }